@@ -0,0 +1,16 @@
+package mclamud;
+
+/**
+ * AuthBench times password hashing and checking at the configured
+ * PBKDF2 iteration count, which is what one login costs an auth worker.
+ */
+class AuthBench {
+
+    private AuthBench(){}
+
+    static void register(Bench bench){
+        String stored = Passwords.hash("Password1");
+        bench.add("auth.hash", () -> Passwords.hash("Password1").length());
+        bench.add("auth.verify", () -> Passwords.verify("Password1", stored) ? 1 : 0);
+    }
+}
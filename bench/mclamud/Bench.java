@@ -0,0 +1,253 @@
+package mclamud;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Bench is a small benchmark harness for the server's hot paths. Each
+ * benchmark is an operation that is run in timed batches: first for a
+ * warm up period so the JIT settles, then for a number of measured
+ * iterations. The mean time per operation of each iteration is reported,
+ * along with the bytes allocated per operation by every thread in the JVM
+ * where the JVM can count them, and everything is written as JSON so runs
+ * of different versions can be compared:
+ *
+ *   ant bench
+ *   ant bench -Dbench.args="--filter=telnet --compare=build/bench/old.json"
+ *
+ * Options: --out=file, --filter=text (only names containing it),
+ * --warmup=ms, --iterations=n, --time=ms (per iteration) and
+ * --compare=file (print the change against an earlier run).
+ */
+public class Bench {
+
+    /**
+     * Op is one operation being measured. It returns something computed
+     * from its work so the JIT cannot throw the work away.
+     */
+    @FunctionalInterface
+    public interface Op {
+        long run() throws Exception;
+    }
+
+    private final Map<String, Op> ops = new LinkedHashMap<>();
+    private String filter = "";
+    private long warmupMillis = 1000;
+    private int iterations = 5;
+    private long iterationMillis = 1000;
+    private volatile long sink = 0;
+
+    /************************************************************************
+     * Adds a benchmark.
+     * @param name Name in the form suite.case
+     * @param op The operation to time
+     ************************************************************************/
+    public void add(String name, Op op){
+        ops.put(name, op);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Bench bench = new Bench();
+        Path out = Paths.get("build", "bench", "results.json");
+        Path compare = null;
+        for (String arg : args){
+            String[] option = arg.split("=", 2);
+            switch(option[0]){
+                case "--out":
+                    out = Paths.get(option[1]);
+                    break;
+                case "--filter":
+                    bench.filter = option[1];
+                    break;
+                case "--warmup":
+                    bench.warmupMillis = Long.parseLong(option[1]);
+                    break;
+                case "--iterations":
+                    bench.iterations = Integer.parseInt(option[1]);
+                    break;
+                case "--time":
+                    bench.iterationMillis = Long.parseLong(option[1]);
+                    break;
+                case "--compare":
+                    compare = Paths.get(option[1]);
+                    break;
+                default:
+                    System.out.println("Ignoring unknown option " + arg);
+            }
+        }
+        WorldBench.register(bench);
+        InputBench.register(bench);
+        AuthBench.register(bench);
+
+        Map<String, Double> baseline = compare != null ? readMeans(compare) : null;
+        List<Result> results = new ArrayList<>();
+        for (Map.Entry<String, Op> e : bench.ops.entrySet()){
+            if (e.getKey().contains(bench.filter)){
+                Result r = bench.measure(e.getKey(), e.getValue());
+                results.add(r);
+                String line = String.format(Locale.ROOT, "%-40s %14.1f ns/op  +- %5.1f%%  %12.0f B/op",
+                    r.name, r.mean, r.mean > 0 ? 100 * r.stddev / r.mean : 0, r.bytesPerOp);
+                if (baseline != null && baseline.containsKey(r.name)){
+                    double old = baseline.get(r.name);
+                    line += String.format(Locale.ROOT, "  %+6.1f%% vs baseline", 100 * (r.mean - old) / old);
+                }
+                System.out.println(line);
+            }
+        }
+        if (out.getParent() != null){
+            Files.createDirectories(out.getParent());
+        }
+        Files.write(out, json(bench, results).getBytes(StandardCharsets.UTF_8));
+        System.out.println("Wrote " + results.size() + " results to " + out + ".");
+    }
+
+    private static class Result {
+        String name;
+        long operations;
+        double[] nanosPerOp;
+        double mean;
+        double stddev;
+        double bytesPerOp = -1;
+    }
+
+    private Result measure(String name, Op op) throws Exception {
+        // Find a batch size that takes about a millisecond, so the clock
+        // is read rarely compared to the work
+        long batch = 1;
+        while (time(op, batch) < 1000000 && batch < (1L << 30)){
+            batch *= 2;
+        }
+        long end = System.nanoTime() + warmupMillis * 1000000;
+        while (System.nanoTime() < end){
+            time(op, batch);
+        }
+        Result r = new Result();
+        r.name = name;
+        r.nanosPerOp = new double[iterations];
+        long allocatedBefore = allocated();
+        for (int i = 0; i < iterations; i++){
+            long spent = 0;
+            long count = 0;
+            while (spent < iterationMillis * 1000000){
+                spent += time(op, batch);
+                count += batch;
+            }
+            r.nanosPerOp[i] = (double) spent / count;
+            r.operations += count;
+            r.mean += r.nanosPerOp[i] / iterations;
+        }
+        long allocatedAfter = allocated();
+        if (allocatedBefore >= 0 && allocatedAfter >= 0){
+            r.bytesPerOp = (double) (allocatedAfter - allocatedBefore) / r.operations;
+        }
+        for (double v : r.nanosPerOp){
+            r.stddev += (v - r.mean) * (v - r.mean) / Math.max(1, iterations - 1);
+        }
+        r.stddev = Math.sqrt(r.stddev);
+        return r;
+    }
+
+    private long time(Op op, long batch) throws Exception {
+        long s = 0;
+        long start = System.nanoTime();
+        for (long i = 0; i < batch; i++){
+            s += op.run();
+        }
+        long spent = System.nanoTime() - start;
+        sink += s;
+        return spent;
+    }
+
+    private static String json(Bench bench, List<Result> results){
+        StringBuilder b = new StringBuilder();
+        b.append("{\n  \"java\": \"").append(System.getProperty("java.version")).append("\",\n");
+        b.append("  \"processors\": ").append(Runtime.getRuntime().availableProcessors()).append(",\n");
+        b.append("  \"timestamp\": ").append(System.currentTimeMillis()).append(",\n");
+        b.append("  \"warmupMillis\": ").append(bench.warmupMillis).append(",\n");
+        b.append("  \"iterationMillis\": ").append(bench.iterationMillis).append(",\n");
+        b.append("  \"benchmarks\": [");
+        for (int i = 0; i < results.size(); i++){
+            Result r = results.get(i);
+            b.append(i == 0 ? "\n" : ",\n");
+            b.append("    {\"name\": \"").append(r.name).append("\", \"unit\": \"ns/op\"");
+            b.append(String.format(Locale.ROOT, ", \"mean\": %.3f, \"stddev\": %.3f, \"bytesPerOp\": %.1f",
+                r.mean, r.stddev, r.bytesPerOp));
+            b.append(", \"operations\": ").append(r.operations).append(", \"iterations\": [");
+            for (int j = 0; j < r.nanosPerOp.length; j++){
+                b.append(j == 0 ? "" : ", ").append(String.format(Locale.ROOT, "%.3f", r.nanosPerOp[j]));
+            }
+            b.append("]}");
+        }
+        b.append("\n  ]\n}\n");
+        return b.toString();
+    }
+
+    // Bytes allocated so far by all live threads, or -1 if the JVM does
+    // not count them. Includes writer threads fed by the operation.
+    private static long allocated(){
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)){
+            return -1;
+        }
+        com.sun.management.ThreadMXBean counting = (com.sun.management.ThreadMXBean) threads;
+        if (!counting.isThreadAllocatedMemorySupported() || !counting.isThreadAllocatedMemoryEnabled()){
+            return -1;
+        }
+        long total = 0;
+        for (long bytes : counting.getThreadAllocatedBytes(threads.getAllThreadIds())){
+            if (bytes > 0){
+                total += bytes;
+            }
+        }
+        return total;
+    }
+
+    // Reads name and mean out of an earlier run's JSON, which json wrote
+    // one benchmark per line
+    private static Map<String, Double> readMeans(Path file) throws IOException {
+        Map<String, Double> means = new LinkedHashMap<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)){
+            int name = line.indexOf("\"name\": \"");
+            int mean = line.indexOf("\"mean\": ");
+            if (name >= 0 && mean >= 0){
+                int nameEnd = line.indexOf('"', name + 9);
+                int meanEnd = line.indexOf(',', mean);
+                means.put(line.substring(name + 9, nameEnd),
+                    Double.parseDouble(line.substring(mean + 8, meanEnd)));
+            }
+        }
+        return means;
+    }
+
+    /************************************************************************
+     * Makes a player whose output is thrown away, for benchmarks that send
+     * text to players.
+     * @param name Player name
+     * @return Player object not connected to anything
+     ************************************************************************/
+    static Player sinkPlayer(String name){
+        Player p = new Player(null);
+        p.name = name;
+        p.stream = new OutputStream(){
+            @Override
+            public void write(int b){
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len){
+            }
+        };
+        return p;
+    }
+}
@@ -0,0 +1,82 @@
+package mclamud;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Scanner;
+
+/**
+ * InputBench times the input path: the telnet engine taking commands out
+ * of what the socket delivers, and cutting the data into lines with
+ * LineDecoder and, for comparison, with the Scanner it replaced. Each
+ * operation handles a 64 KB block, so times are per block.
+ */
+class InputBench {
+    private final static int BLOCK = 64 * 1024;
+
+    private InputBench(){}
+
+    static void register(Bench bench){
+        byte[] lines = lines();
+        byte[] wire = wire(lines);
+        byte[] work = new byte[wire.length];
+        Telnet telnet = new Telnet(new OutputStream(){
+            @Override
+            public void write(int b){
+            }
+        });
+        bench.add("telnet.decode.64k", () -> {
+            System.arraycopy(wire, 0, work, 0, wire.length);
+            return telnet.decode(work, 0, work.length);
+        });
+
+        bench.add("lines.lineDecoder.64k", () -> {
+            LineDecoder decoder = new LineDecoder();
+            ByteArrayInputStream in = new ByteArrayInputStream(lines);
+            long n = 0;
+            String line;
+            while ((line = decoder.readLine(in)) != null){
+                n += line.length();
+            }
+            return n;
+        });
+        bench.add("lines.scanner.64k", () -> {
+            Scanner scanner = new Scanner(new ByteArrayInputStream(lines), "ISO-8859-1");
+            long n = 0;
+            while (scanner.hasNextLine()){
+                n += scanner.nextLine().trim().length();
+            }
+            return n;
+        });
+    }
+
+    // Typical commands, CRLF terminated, to fill a block
+    private static byte[] lines(){
+        String[] commands = {"look", "walk north", "say hello there everyone",
+            "get lantern", "whisper bob meet me at the tannery", "inventory"};
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; out.size() < BLOCK; i++){
+            byte[] b = (commands[i % commands.length] + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+            out.write(b, 0, b.length);
+        }
+        return out.toByteArray();
+    }
+
+    // The same lines with an escaped IAC and a NAWS report now and then,
+    // as a client that negotiated would send them
+    private static byte[] wire(byte[] lines){
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < lines.length; i++){
+            out.write(lines[i]);
+            if (i % 4096 == 0){
+                out.write(Telnet.IAC);
+                out.write(Telnet.IAC);
+                byte[] naws = {(byte) Telnet.IAC, (byte) Telnet.SB, (byte) Telnet.OPT_NAWS,
+                    0, 80, 0, 24, (byte) Telnet.IAC, (byte) Telnet.SE};
+                out.write(naws, 0, naws.length);
+            }
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,561 @@
+package mclamud;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * LoadGenerator plays many telnet clients against a running server on this
+ * machine. Every bot logs in (making its account the first time), then
+ * keeps sending a random command from the mix and waiting for the answer
+ * before thinking and sending the next. All bots run on one selector
+ * thread, so thousands cost little on the client side.
+ *
+ * To know when a command's output has all arrived, each command is
+ * followed by "ping" and a sequence number, which the server answers with
+ * its not-valid message; the time until that line is the command's
+ * response time. The server counts these as unknown commands.
+ *
+ * The server needs --login-rate=0, since every bot comes from the same
+ * address, and an --input-rate of at least two lines per think time:
+ *
+ *   ant load -Dload.args="--bots=1000 --duration=60"
+ *
+ * Options: --host, --port, --bots, --duration (seconds, after ramp up),
+ * --ramp (seconds over which bots connect), --think (ms between commands),
+ * --mix (verb:weight,... of walk, look, say, yell, get, drop, shout), --prefix
+ * and --password (bot accounts), --seed, --out (JSON report) and
+ * --compare (an earlier report).
+ */
+public class LoadGenerator {
+    private final static String[] VERBS = {"walk", "look", "say", "yell", "get", "drop", "shout"};
+    private final static String[] DIRECTIONS = {"north", "south", "east", "west", "up", "down"};
+    private final static long RESPONSE_TIMEOUT = 10000000000L;
+
+    private String host = "127.0.0.1";
+    private int port = 6666;
+    private int bots = 100;
+    private int durationSeconds = 30;
+    private int rampSeconds = 5;
+    private int thinkMillis = 500;
+    private int[] weights = {30, 30, 15, 5, 10, 10, 0};
+    private String prefix = "loadbot";
+    private String password = "Loadbot123";
+    private Random random = new Random(1);
+
+    private final Map<String, Histogram> latency = new LinkedHashMap<>();
+    private final Histogram logins = new Histogram();
+    private final PriorityQueue<Bot> timers = new PriorityQueue<>((a, b) -> Long.compare(a.due, b.due));
+    private Selector selector;
+    private long measureFrom;
+    private int loggedIn = 0;
+    private int loginFailures = 0;
+    private int disconnects = 0;
+    private int timeouts = 0;
+    private long busyRetries = 0;
+
+    private enum State {NEW, LOGIN, READY, WAITING, DONE}
+
+    private class Bot {
+        final int id;
+        final String name;
+        SocketChannel channel;
+        State state = State.NEW;
+        long due;
+        long connected;
+        final StringBuilder text = new StringBuilder();
+        ByteBuffer unsent = null;
+        String deferred = null;
+        int seq = 0;
+        String verb;
+        String sentinel;
+        long sentAt;
+        final List<String> exits = new ArrayList<>();
+        final List<String> items = new ArrayList<>();
+        final ArrayDeque<String> inventory = new ArrayDeque<>();
+
+        Bot(int id){
+            this.id = id;
+            this.name = prefix + id;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        LoadGenerator load = new LoadGenerator();
+        Path out = Paths.get("build", "load", "report.json");
+        Path compare = null;
+        for (String arg : args){
+            String[] option = arg.split("=", 2);
+            switch(option[0]){
+                case "--host":
+                    load.host = option[1];
+                    break;
+                case "--port":
+                    load.port = Integer.parseInt(option[1]);
+                    break;
+                case "--bots":
+                    load.bots = Integer.parseInt(option[1]);
+                    break;
+                case "--duration":
+                    load.durationSeconds = Integer.parseInt(option[1]);
+                    break;
+                case "--ramp":
+                    load.rampSeconds = Integer.parseInt(option[1]);
+                    break;
+                case "--think":
+                    load.thinkMillis = Integer.parseInt(option[1]);
+                    break;
+                case "--mix":
+                    load.weights = mix(option[1]);
+                    break;
+                case "--prefix":
+                    load.prefix = option[1];
+                    break;
+                case "--password":
+                    load.password = option[1];
+                    break;
+                case "--seed":
+                    load.random = new Random(Long.parseLong(option[1]));
+                    break;
+                case "--out":
+                    out = Paths.get(option[1]);
+                    break;
+                case "--compare":
+                    compare = Paths.get(option[1]);
+                    break;
+                default:
+                    System.out.println("Ignoring unknown option " + arg);
+            }
+        }
+        long seconds = load.run();
+        String report = load.json(seconds);
+        if (out.getParent() != null){
+            Files.createDirectories(out.getParent());
+        }
+        Files.write(out, report.getBytes(StandardCharsets.UTF_8));
+        load.print(seconds, compare != null ? readReport(compare) : null);
+        System.out.println("Wrote report to " + out + ".");
+    }
+
+    // Parses "walk:30,look:30" into weights in VERBS order
+    private static int[] mix(String spec){
+        int[] w = new int[VERBS.length];
+        for (String part : spec.split(",")){
+            String[] pair = part.split(":");
+            int i = indexOf(VERBS, pair[0].trim());
+            if (i < 0){
+                throw new IllegalArgumentException("Unknown verb " + pair[0] + " in --mix.");
+            }
+            w[i] = Integer.parseInt(pair[1].trim());
+        }
+        return w;
+    }
+
+    private long run() throws IOException {
+        for (String verb : VERBS){
+            latency.put(verb, new Histogram());
+        }
+        selector = Selector.open();
+        long start = System.nanoTime();
+        for (int i = 0; i < bots; i++){
+            Bot b = new Bot(i);
+            b.due = start + (long) rampSeconds * 1000000000L * i / Math.max(1, bots);
+            timers.add(b);
+        }
+        measureFrom = start + rampSeconds * 1000000000L;
+        long end = measureFrom + durationSeconds * 1000000000L;
+        System.out.println("Running " + bots + " bots against " + host + ":" + port +
+            " for " + rampSeconds + "s ramp up and " + durationSeconds + "s measured.");
+        while (System.nanoTime() < end){
+            Bot next = timers.peek();
+            long wait = next == null ? 100 : Math.max(1, (next.due - System.nanoTime()) / 1000000);
+            selector.select(Math.min(wait, 100));
+            for (SelectionKey key : selector.selectedKeys()){
+                Bot b = (Bot) key.attachment();
+                if (key.isValid() && key.isConnectable()){
+                    finishConnect(b, key);
+                }
+                if (key.isValid() && key.isWritable()){
+                    flush(b);
+                }
+                if (key.isValid() && key.isReadable()){
+                    read(b);
+                }
+            }
+            selector.selectedKeys().clear();
+            long now = System.nanoTime();
+            while (!timers.isEmpty() && timers.peek().due <= now){
+                Bot b = timers.poll();
+                if (b.state == State.NEW){
+                    connect(b);
+                } else if (b.state == State.LOGIN && b.deferred != null){
+                    send(b, b.deferred);
+                    b.deferred = null;
+                } else if (b.state == State.READY){
+                    command(b);
+                }
+            }
+            checkTimeouts(now);
+        }
+        for (SelectionKey key : selector.keys()){
+            key.channel().close();
+        }
+        selector.close();
+        return durationSeconds;
+    }
+
+    private void connect(Bot b){
+        try {
+            b.channel = SocketChannel.open();
+            b.channel.configureBlocking(false);
+            b.channel.socket().setTcpNoDelay(true);
+            b.channel.connect(new InetSocketAddress(host, port));
+            b.channel.register(selector, SelectionKey.OP_CONNECT, b);
+            b.connected = System.nanoTime();
+            b.state = State.LOGIN;
+        } catch (IOException ex){
+            fail(b, "connect");
+        }
+    }
+
+    private void finishConnect(Bot b, SelectionKey key){
+        try {
+            b.channel.finishConnect();
+            key.interestOps(SelectionKey.OP_READ);
+        } catch (IOException ex){
+            fail(b, "connect");
+        }
+    }
+
+    private void read(Bot b){
+        ByteBuffer buf = ByteBuffer.allocate(8192);
+        int n;
+        try {
+            n = b.channel.read(buf);
+        } catch (IOException ex){
+            n = -1;
+        }
+        if (n < 0){
+            fail(b, "disconnect");
+            return;
+        }
+        b.text.append(new String(buf.array(), 0, n, StandardCharsets.ISO_8859_1));
+        if (b.state == State.LOGIN){
+            login(b);
+        } else if (b.state == State.WAITING){
+            response(b);
+        } else if (b.text.length() > 65536){
+            b.text.setLength(0); // chatter from other bots while thinking
+        }
+    }
+
+    // Answers whichever login prompt has arrived
+    private void login(Bot b){
+        String t = b.text.toString();
+        if (t.contains("Too many login attempts")){
+            fail(b, "throttled (run the server with --login-rate=0)");
+        } else if (t.contains("busy letting other players in")){
+            // Back off rather than keep the login queue full
+            busyRetries++;
+            b.text.setLength(0);
+            b.deferred = "y";
+            b.due = System.nanoTime() + (long) (250 + random.nextInt(750)) * 1000000L;
+            timers.add(b);
+        } else if (t.contains("Yes or no?") && t.contains("Would you like to use the name")){
+            b.text.setLength(0);
+            send(b, "y");
+        } else if (t.contains("Yes or no?")){
+            fail(b, "login refused: " + t.trim());
+        } else if (t.contains("player name: ")){
+            b.text.setLength(0);
+            send(b, b.name);
+        } else if (t.contains("password: ")){
+            b.text.setLength(0);
+            send(b, password);
+        } else if (footer(t) >= 0){
+            logins.record(System.nanoTime() - b.connected);
+            loggedIn++;
+            room(b, t);
+            b.text.setLength(0);
+            think(b);
+        }
+    }
+
+    private void command(Bot b){
+        int roll = random.nextInt(total(weights));
+        int v = 0;
+        while (roll >= weights[v]){
+            roll -= weights[v++];
+        }
+        b.verb = VERBS[v];
+        String line;
+        switch (b.verb){
+            case "walk":
+                line = "walk " + (b.exits.isEmpty() ? "north" : b.exits.get(random.nextInt(b.exits.size())));
+                break;
+            case "say":
+                line = "say hello from " + b.name;
+                break;
+            case "yell":
+                line = "yell " + b.name + " is yelling";
+                break;
+            case "shout":
+                line = "shout " + b.name + " is shouting";
+                break;
+            case "get":
+                String item = b.items.isEmpty() ? "nothing" : b.items.get(random.nextInt(b.items.size()));
+                b.inventory.add(item);
+                line = "get " + item;
+                break;
+            case "drop":
+                line = "drop " + (b.inventory.isEmpty() ? "nothing" : b.inventory.poll());
+                break;
+            default:
+                line = "look";
+        }
+        b.seq++;
+        b.sentinel = "Command \"ping" + b.seq + "\" is not valid.";
+        b.text.setLength(0);
+        b.state = State.WAITING;
+        b.sentAt = System.nanoTime();
+        send(b, line + "\r\nping" + b.seq);
+    }
+
+    private void response(Bot b){
+        int end = b.text.indexOf(b.sentinel);
+        if (end >= 0){
+            long now = System.nanoTime();
+            if (b.sentAt >= measureFrom){
+                latency.get(b.verb).record(now - b.sentAt);
+            }
+            room(b, b.text.substring(0, end));
+            b.text.setLength(0);
+            think(b);
+        }
+    }
+
+    // Picks up the exits and items of the room just shown, if any
+    private void room(Bot b, String t){
+        int exits = t.lastIndexOf("Exits available:");
+        if (exits >= 0){
+            b.exits.clear();
+            for (String word : words(t, exits + 16)){
+                if (indexOf(DIRECTIONS, word) >= 0){
+                    b.exits.add(word);
+                }
+            }
+        }
+        int items = t.lastIndexOf("Items available:");
+        if (items >= 0){
+            b.items.clear();
+            for (String word : words(t, items + 16)){
+                if (!(word.length() > 1 && word.charAt(0) == 'x' && Character.isDigit(word.charAt(1)))){
+                    b.items.add(word);
+                }
+            }
+        }
+    }
+
+    private void think(Bot b){
+        b.state = State.READY;
+        b.due = System.nanoTime() + (long) (thinkMillis * (0.5 + random.nextDouble())) * 1000000L;
+        timers.add(b);
+    }
+
+    private void checkTimeouts(long now){
+        for (SelectionKey key : selector.keys()){
+            Bot b = (Bot) key.attachment();
+            if (b.state == State.WAITING && now - b.sentAt > RESPONSE_TIMEOUT){
+                timeouts++;
+                fail(b, "timeout");
+            }
+        }
+    }
+
+    private void send(Bot b, String line){
+        ByteBuffer data = ByteBuffer.wrap((line + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        if (b.unsent != null){
+            ByteBuffer joined = ByteBuffer.allocate(b.unsent.remaining() + data.remaining());
+            joined.put(b.unsent).put(data).flip();
+            data = joined;
+        }
+        b.unsent = data;
+        flush(b);
+    }
+
+    private void flush(Bot b){
+        try {
+            b.channel.write(b.unsent);
+            SelectionKey key = b.channel.keyFor(selector);
+            if (b.unsent.hasRemaining()){
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            } else {
+                b.unsent = null;
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        } catch (IOException ex){
+            fail(b, "disconnect");
+        }
+    }
+
+    private void fail(Bot b, String why){
+        if (b.state == State.DONE){
+            return;
+        }
+        if (b.state == State.LOGIN || b.state == State.NEW){
+            loginFailures++;
+            if (loginFailures <= 5){
+                System.out.println(b.name + ": " + why);
+            }
+        } else if (!why.equals("timeout")){
+            disconnects++;
+        }
+        b.state = State.DONE;
+        timers.remove(b);
+        try {
+            b.channel.close();
+        } catch (IOException ex){
+            // closing anyway
+        }
+    }
+
+    private String json(long seconds){
+        StringBuilder j = new StringBuilder();
+        j.append("{\n  \"bots\": ").append(bots).append(",\n");
+        j.append("  \"durationSeconds\": ").append(seconds).append(",\n");
+        j.append("  \"thinkMillis\": ").append(thinkMillis).append(",\n");
+        j.append("  \"loggedIn\": ").append(loggedIn).append(",\n");
+        j.append("  \"loginFailures\": ").append(loginFailures).append(",\n");
+        j.append("  \"disconnects\": ").append(disconnects).append(",\n");
+        j.append("  \"timeouts\": ").append(timeouts).append(",\n");
+        j.append("  \"busyRetries\": ").append(busyRetries).append(",\n");
+        j.append(String.format(Locale.ROOT, "  \"loginP50Ms\": %.1f, \"loginP99Ms\": %.1f,\n",
+            logins.percentile(50) / 1e6, logins.percentile(99) / 1e6));
+        j.append(String.format(Locale.ROOT, "  \"throughput\": %.1f,\n", ops() / (double) seconds));
+        j.append("  \"commands\": [");
+        boolean first = true;
+        for (Map.Entry<String, Histogram> e : latency.entrySet()){
+            Histogram h = e.getValue();
+            j.append(first ? "\n" : ",\n");
+            first = false;
+            j.append(String.format(Locale.ROOT, "    {\"verb\": \"%s\", \"count\": %d, \"meanUs\": %.1f, " +
+                "\"p50Us\": %.1f, \"p99Us\": %.1f, \"maxUs\": %.1f}", e.getKey(), h.count(),
+                h.mean() / 1e3, h.percentile(50) / 1e3, h.percentile(99) / 1e3, h.max() / 1e3));
+        }
+        j.append("\n  ]\n}\n");
+        return j.toString();
+    }
+
+    private void print(long seconds, Map<String, Double> baseline){
+        System.out.println(String.format(Locale.ROOT, "Logged in %d of %d bots (%d failed, %d busy retries), " +
+            "login p50 %.1f ms p99 %.1f ms", loggedIn, bots, loginFailures, busyRetries,
+            logins.percentile(50) / 1e6, logins.percentile(99) / 1e6));
+        double throughput = ops() / (double) seconds;
+        String line = String.format(Locale.ROOT, "Throughput %.1f commands/s, %d disconnects, %d timeouts",
+            throughput, disconnects, timeouts);
+        if (baseline != null && baseline.containsKey("throughput")){
+            line += change(throughput, baseline.get("throughput"));
+        }
+        System.out.println(line);
+        System.out.println(String.format(Locale.ROOT, "%-6s %9s %10s %10s %10s", "verb", "count",
+            "p50 ms", "p99 ms", "max ms"));
+        for (Map.Entry<String, Histogram> e : latency.entrySet()){
+            Histogram h = e.getValue();
+            line = String.format(Locale.ROOT, "%-6s %9d %10.2f %10.2f %10.2f", e.getKey(), h.count(),
+                h.percentile(50) / 1e6, h.percentile(99) / 1e6, h.max() / 1e6);
+            if (baseline != null && baseline.containsKey(e.getKey())){
+                line += "  p99" + change(h.percentile(99) / 1e3, baseline.get(e.getKey()));
+            }
+            System.out.println(line);
+        }
+    }
+
+    private static String change(double now, double before){
+        return before == 0 ? "" : String.format(Locale.ROOT, " %+6.1f%% vs baseline", 100 * (now - before) / before);
+    }
+
+    private long ops(){
+        long n = 0;
+        for (Histogram h : latency.values()){
+            n += h.count();
+        }
+        return n;
+    }
+
+    // Reads throughput and each verb's p99 out of an earlier report, which
+    // json wrote one verb per line
+    private static Map<String, Double> readReport(Path file) throws IOException {
+        Map<String, Double> values = new LinkedHashMap<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)){
+            int t = line.indexOf("\"throughput\": ");
+            if (t >= 0){
+                values.put("throughput", Double.parseDouble(line.substring(t + 14, line.indexOf(',', t))));
+            }
+            int verb = line.indexOf("\"verb\": \"");
+            int p99 = line.indexOf("\"p99Us\": ");
+            if (verb >= 0 && p99 >= 0){
+                values.put(line.substring(verb + 9, line.indexOf('"', verb + 9)),
+                    Double.parseDouble(line.substring(p99 + 9, line.indexOf(',', p99))));
+            }
+        }
+        return values;
+    }
+
+    // Index of the "[id]" line that ends a room display, or -1
+    private static int footer(String t){
+        int close = t.lastIndexOf(']');
+        int open = close > 0 ? t.lastIndexOf('[', close) : -1;
+        if (open < 0 || close - open < 2){
+            return -1;
+        }
+        for (int i = open + 1; i < close; i++){
+            if (!Character.isDigit(t.charAt(i))){
+                return -1;
+            }
+        }
+        return open;
+    }
+
+    private static List<String> words(String t, int from){
+        List<String> words = new ArrayList<>();
+        int end = t.indexOf('\n', from);
+        for (String w : t.substring(from, end < 0 ? t.length() : end).trim().split(" ")){
+            if (!w.isEmpty()){
+                words.add(w.trim());
+            }
+        }
+        return words;
+    }
+
+    private static int total(int[] w){
+        int sum = 0;
+        for (int x : w){
+            sum += x;
+        }
+        return sum;
+    }
+
+    private static int indexOf(String[] list, String s){
+        for (int i = 0; i < list.length; i++){
+            if (list[i].equals(s)){
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,96 @@
+package mclamud;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * WorldBench times the World calls every command leans on, over a few
+ * areas written to a temporary directory: showing a room, walking between
+ * two rooms, talking to rooms of different sizes, yelling to the world
+ * and shouting to nearby rooms, reading an area from disk, and cutting up
+ * and looking up a command line.
+ */
+class WorldBench {
+    private final static String DESCRIPTION = "You are standing on a cobblestone street in " +
+        "the Town of Mosstown. Ramshackle buildings line both sides of the street, and " +
+        "the smell of the tannery hangs over everything.";
+    private final static int[] CROWDS = {1, 10, 100};
+    private final static int ONLINE = 5000;
+    private final static int CORRIDOR = 20;
+
+    private WorldBench(){}
+
+    static void register(Bench bench) throws IOException {
+        Path dir = Files.createTempDirectory("bench-areas");
+        dir.toFile().deleteOnExit();
+        area(dir, 1, "0,0,2,0,0,0");
+        area(dir, 2, "0,0,0,1,0,0");
+        for (int crowd : CROWDS){
+            area(dir, 100 + crowd, "0,0,0,0,0,0");
+        }
+        FileStore store = new FileStore(dir, dir);
+        World.useAreaStore(store);
+
+        Player viewer = Bench.sinkPlayer("viewer");
+        World.movePlayer(viewer, 1);
+        bench.add("world.displayArea", () -> World.displayArea(viewer.location, viewer) ? 1 : 0);
+
+        Player walker = Bench.sinkPlayer("walker");
+        World.movePlayer(walker, 1);
+        bench.add("world.doWalk", () -> World.doWalk(walker, walker.location == 1 ? "east" : "west") ? 1 : 0);
+
+        for (int crowd : CROWDS){
+            Player speaker = Bench.sinkPlayer("speaker" + crowd);
+            World.movePlayer(speaker, 100 + crowd);
+            for (int i = 0; i < crowd; i++){
+                World.movePlayer(Bench.sinkPlayer("listener" + crowd + "_" + i), 100 + crowd);
+            }
+            bench.add("world.sendMessageToArea." + crowd, () ->
+                World.sendMessageToArea(speaker, "speaker says: hello there") ? 1 : 0);
+        }
+
+        // A yell reaches everyone online; the listeners above are not
+        // registered, so these are the only ones. They stand along a
+        // corridor of rooms, where a shout from the middle only reaches
+        // the rooms within Interest.radius.
+        for (int i = 0; i < CORRIDOR; i++){
+            area(dir, 200 + i, "0,0," + (i + 1 < CORRIDOR ? 201 + i : 0) + "," + (i > 0 ? 199 + i : 0) + ",0,0");
+        }
+        Player yeller = Bench.sinkPlayer("yeller");
+        PlayerRegistry.add(yeller);
+        World.movePlayer(yeller, 200 + CORRIDOR / 2);
+        for (int i = 1; i < ONLINE; i++){
+            Player online = Bench.sinkPlayer("online" + i);
+            PlayerRegistry.add(online);
+            World.movePlayer(online, 200 + i % CORRIDOR);
+        }
+        bench.add("world.sendMessageToWorld." + ONLINE, () ->
+            World.sendMessageToWorld(yeller, "is anyone out there?") ? 1 : 0);
+        bench.add("world.shout." + ONLINE, () ->
+            World.shout(yeller, "is anyone out there?") ? 1 : 0);
+
+        bench.add("world.readArea", () -> store.load(1).exits[2]);
+
+        String[] lines = {"look", "l", "walk north", "say hello there everyone",
+            "whisper bob hi there", "get item1", "inv", "xyzzy"};
+        int[] next = {0};
+        bench.add("command.parse", () -> {
+            CommandLine line = new CommandLine(lines[next[0]++ & 7]);
+            CommandRegistry.Entry e = CommandRegistry.find(line.verb);
+            return line.arity() + (e != null ? e.name.length() : 0);
+        });
+    }
+
+    static void area(Path dir, int id, String exits) throws IOException {
+        String text = "[title]Room " + id + "\n" +
+            "[description]" + DESCRIPTION + "\n" +
+            "[items]lantern,rope,coin,coin,coin\n" +
+            "[exits]" + exits + "\n" +
+            "[ID]" + id + "\n";
+        Path file = dir.resolve(id + ".area");
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+        file.toFile().deleteOnExit();
+    }
+}
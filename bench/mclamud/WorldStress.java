@@ -0,0 +1,219 @@
+package mclamud;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * WorldStress checks that concurrent walking cannot lose or duplicate a
+ * player. Players on a grid of rooms walk in random directions from many
+ * threads at once, and now and then log out and back in as a new Player
+ * object, the way a real session does. Each player belongs to one thread,
+ * as each session belongs to one connection.
+ *
+ * Afterwards every player the threads left online must be the one in
+ * PlayerRegistry, must stand in exactly one Area.players map, the one
+ * their location names, and must be listening from there in Interest;
+ * nobody who logged out may be left anywhere. Any mismatch is printed and
+ * the run fails:
+ *
+ *   ant stress
+ *   ant stress -Dstress.args="--threads=64 --players=5000 --operations=200000"
+ *
+ * Options: --threads, --players, --operations (per thread) and --grid
+ * (rooms along each side).
+ */
+public class WorldStress {
+    private final static String[] DIRECTIONS = {"north", "south", "east", "west"};
+
+    private int threads = 2 * Runtime.getRuntime().availableProcessors();
+    private int players = 1000;
+    private int operations = 100000;
+    private int grid = 8;
+
+    private Player[] online;
+    private final LongAdder walks = new LongAdder();
+    private final LongAdder logins = new LongAdder();
+    private final LongAdder logouts = new LongAdder();
+    private final List<String> problems = new ArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        WorldStress stress = new WorldStress();
+        for (String arg : args){
+            String[] option = arg.split("=", 2);
+            switch(option[0]){
+                case "--threads":
+                    stress.threads = Integer.parseInt(option[1]);
+                    break;
+                case "--players":
+                    stress.players = Integer.parseInt(option[1]);
+                    break;
+                case "--operations":
+                    stress.operations = Integer.parseInt(option[1]);
+                    break;
+                case "--grid":
+                    stress.grid = Integer.parseInt(option[1]);
+                    break;
+                default:
+                    System.out.println("Ignoring unknown option " + arg);
+            }
+        }
+        if (!stress.run()){
+            System.exit(1);
+        }
+    }
+
+    private boolean run() throws IOException, InterruptedException {
+        Path dir = Files.createTempDirectory("stress-areas");
+        dir.toFile().deleteOnExit();
+        for (int id = 1; id <= grid * grid; id++){
+            WorldBench.area(dir, id, exits(id));
+        }
+        World.useAreaStore(new FileStore(dir, dir));
+
+        online = new Player[players];
+        for (int i = 0; i < players; i++){
+            login(i);
+        }
+        long start = System.nanoTime();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++){
+            final int first = t;
+            Thread w = new Thread(() -> work(first), "stress-" + t);
+            workers.add(w);
+            w.start();
+        }
+        for (Thread w : workers){
+            w.join();
+        }
+        long millis = (System.nanoTime() - start) / 1000000;
+
+        check();
+        System.out.println(String.format("%d threads, %d players, %d rooms: %d walks, %d logins, " +
+            "%d logouts in %d ms.", threads, players, grid * grid, walks.sum(), logins.sum(),
+            logouts.sum(), millis));
+        for (String problem : problems){
+            System.out.println(problem);
+        }
+        System.out.println(problems.isEmpty() ? "No players lost or duplicated." :
+            problems.size() + " problems found.");
+        return problems.isEmpty();
+    }
+
+    // Thread first looks after players first, first + threads, ...
+    private void work(int first){
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int owned = (players - first + threads - 1) / threads;
+        for (int n = 0; n < operations && owned > 0; n++){
+            int i = first + threads * random.nextInt(owned);
+            Player p = online[i];
+            if (random.nextInt(50) == 0){
+                if (p != null){
+                    logout(i);
+                } else {
+                    login(i);
+                }
+            } else if (p != null){
+                World.doWalk(p, DIRECTIONS[random.nextInt(DIRECTIONS.length)]);
+                walks.increment();
+            }
+        }
+    }
+
+    private void login(int i){
+        Player p = Bench.sinkPlayer("stress" + i);
+        p.location = 1 + ThreadLocalRandom.current().nextInt(grid * grid);
+        if (!PlayerRegistry.add(p)){
+            problem("stress" + i + " could not log in; the old session is still registered");
+            return;
+        }
+        if (PlayerRegistry.add(Bench.sinkPlayer("Stress" + i))){
+            problem("stress" + i + " was let in twice");
+        }
+        World.movePlayer(p, p.location);
+        online[i] = p;
+        logins.increment();
+    }
+
+    private void logout(int i){
+        Player p = online[i];
+        PlayerRegistry.remove(p);
+        World.removePlayer(p);
+        online[i] = null;
+        logouts.increment();
+    }
+
+    private void check(){
+        int expected = 0;
+        for (int i = 0; i < players; i++){
+            Player p = online[i];
+            Player registered = PlayerRegistry.find("stress" + i);
+            if (p == null){
+                if (registered != null){
+                    problem("stress" + i + " logged out but is still registered");
+                }
+                continue;
+            }
+            expected++;
+            if (registered != p){
+                problem("stress" + i + " is online but registered as " + registered);
+            }
+            Area a = World.getArea(p.location);
+            if (a.players.get(p.name.toLowerCase()) != p){
+                problem("stress" + i + " is missing from area " + p.location);
+            }
+        }
+        if (PlayerRegistry.size() != expected){
+            problem(PlayerRegistry.size() + " players registered, expected " + expected);
+        }
+
+        int placed = 0;
+        for (int id = 1; id <= grid * grid; id++){
+            Area a = World.getArea(id);
+            for (Map.Entry<String, Player> e : a.players.entrySet()){
+                Player p = e.getValue();
+                placed++;
+                if (p.location != id){
+                    problem(p.name + " is in area " + id + " but located in " + p.location);
+                } else if (PlayerRegistry.find(p.name) != p){
+                    problem(p.name + " is a ghost in area " + id);
+                }
+            }
+            int here = 0;
+            for (Map.Entry<Player, Integer> e : a.listeners.entrySet()){
+                if (e.getValue() == 0){
+                    here++;
+                    if (a.players.get(e.getKey().name.toLowerCase()) != e.getKey()){
+                        problem(e.getKey().name + " listens from area " + id + " but is not there");
+                    }
+                }
+            }
+            if (here != a.players.size()){
+                problem("Area " + id + " has " + a.players.size() + " players and " + here +
+                    " listeners standing in it");
+            }
+        }
+        if (placed != expected){
+            problem(placed + " players in areas, expected " + expected);
+        }
+    }
+
+    private void problem(String problem){
+        synchronized (problems){
+            problems.add(problem);
+        }
+    }
+
+    // North and south move a row, east and west a column; the edges are walls
+    private String exits(int id){
+        int row = (id - 1) / grid;
+        int col = (id - 1) % grid;
+        return (row > 0 ? id - grid : 0) + "," + (row < grid - 1 ? id + grid : 0) + "," +
+            (col < grid - 1 ? id + 1 : 0) + "," + (col > 0 ? id - 1 : 0) + ",0,0";
+    }
+}
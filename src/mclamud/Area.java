@@ -1,8 +1,9 @@
 package mclamud;
 
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class Area {
     public String title = "";
@@ -10,7 +11,35 @@ public class Area {
     
     public int[] exits = {0,0,0,0,0,0};
     public String ID = "";
-    //couldn't quite understand Hashmap<>() went with what I know for items
-    public ArrayList<String> items = new ArrayList<>(); 
+    public ItemBag items = new ItemBag();
     public Map<String, Player> players = new HashMap<>();
+    // Guards items and players. See World for the lock ordering rule.
+    public final ReentrantLock lock = new TimedLock();
+    // Set for areas loaded from a compiled area file. The title and
+    // description then stay in the mapped file and are decoded when shown.
+    MappedAreaStore store = null;
+    int record = 0;
+    // Bumped under lock whenever items or players change
+    public int version = 0;
+    // Rendered text for World.displayArea. frame is the title, description
+    // and exits, which never change once the area is loaded; it stays null
+    // for mapped areas so their text stays in the mapping. The items line
+    // and player lines are rendered for renderedVersion, under lock.
+    String frame = null;
+    String itemsLine = null;
+    String[] presentNames = {};
+    String[] presentLines = {};
+    int renderedVersion = -1;
+    // Players near enough to hear this area and how many steps away each
+    // is standing, and the areas this one can hear; see Interest
+    final ConcurrentHashMap<Player, Integer> listeners = new ConcurrentHashMap<>();
+    volatile Interest.Reach reach = null;
+    
+    public String getTitle(){
+        return store != null ? store.title(record) : title;
+    }
+    
+    public String getDescription(){
+        return store != null ? store.description(record) : description;
+    }
 }
\ No newline at end of file
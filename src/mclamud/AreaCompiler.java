@@ -0,0 +1,98 @@
+package mclamud;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * AreaCompiler turns a directory of .area files into the single binary file
+ * read by MappedAreaStore. Run it whenever the area files change:
+ *
+ *   java -cp MCLAMUD.jar mclamud.AreaCompiler [areas directory] [output file]
+ *
+ * The defaults are areas and areas.bin.
+ */
+public class AreaCompiler {
+
+    private AreaCompiler(){}
+
+    public static void main(String[] args){
+        Path source = Paths.get(args.length > 0 ? args[0] : "areas");
+        Path target = Paths.get(args.length > 1 ? args[1] : "areas.bin");
+        try {
+            int count = compile(source, target);
+            System.out.println("Compiled " + count + " areas into " + target + ".");
+        } catch (IOException ex){
+            System.out.println("An error occurred compiling areas: " + ex.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /************************************************************************
+     * Compiles every numbered .area file in a directory.
+     * @param source Directory of .area files
+     * @param target File to write; replaced only once it is complete
+     * @return int - the number of areas compiled.
+     * @throws IOException if an area file cannot be read or the target
+     * cannot be written
+     ************************************************************************/
+    public static int compile(Path source, Path target) throws IOException {
+        if (!Files.isDirectory(source)){
+            throw new IOException(source + " is not a directory.");
+        }
+        FileStore files = new FileStore(source, Paths.get("players"));
+        int[] ids = files.ids();
+        int indexBytes = MappedAreaStore.HEADER_BYTES + ids.length * MappedAreaStore.INDEX_ENTRY_BYTES;
+        int[] offsets = new int[ids.length];
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(records);
+        for (int i = 0; i < ids.length; i++){
+            Area a = files.load(ids[i]);
+            if (a == null){
+                throw new IOException("Could not read area " + ids[i] + ".");
+            }
+            offsets[i] = indexBytes + out.size();
+            for (int exit : a.exits){
+                out.writeInt(exit);
+            }
+            writeString(out, a.ID);
+            writeString(out, a.title);
+            writeString(out, a.description);
+            out.writeInt(a.items.distinct());
+            for (int id : a.items.ids()){
+                writeString(out, Items.name(id));
+                out.writeInt(a.items.count(id));
+            }
+        }
+        out.flush();
+
+        Path temp = Paths.get(target.toString() + ".tmp");
+        try (OutputStream file = Files.newOutputStream(temp)){
+            DataOutputStream header = new DataOutputStream(file);
+            header.writeInt(MappedAreaStore.MAGIC);
+            header.writeInt(MappedAreaStore.VERSION);
+            header.writeInt(ids.length);
+            for (int i = 0; i < ids.length; i++){
+                header.writeInt(ids[i]);
+                header.writeInt(offsets[i]);
+            }
+            header.flush();
+            records.writeTo(file);
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+        return ids.length;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
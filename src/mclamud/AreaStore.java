@@ -0,0 +1,21 @@
+package mclamud;
+
+/**
+ * AreaStore is where the starting state of the world is read from. Areas
+ * are never written back; changes made in play go to the Journal.
+ */
+public interface AreaStore {
+
+    /************************************************************************
+     * Reads one area.
+     * @param areaId ID of the area
+     * @return Area object, or null if there is no such area.
+     ************************************************************************/
+    Area load(int areaId);
+
+    /************************************************************************
+     * Lists every area in the store.
+     * @return int[] of area IDs
+     ************************************************************************/
+    int[] ids();
+}
@@ -0,0 +1,120 @@
+package mclamud;
+
+import java.net.InetAddress;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Auth runs password hashing and checking on a small pool of its own, so
+ * a burst of logins costs login latency rather than stalling the threads
+ * that run commands. The pool's queue is bounded; when it is full new
+ * attempts are refused at once instead of piling up. Each remote address
+ * may also only try so many passwords a minute.
+ */
+public class Auth {
+    // Set from the command line in Server.main, before the first login
+    public static int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    public static int queueDepth = 64;
+    public static int attemptsPerMinute = 10;
+
+    private final static int MAX_TRACKED_ADDRESSES = 4096;
+    private final static ConcurrentHashMap<InetAddress, Bucket> ATTEMPTS = new ConcurrentHashMap<>();
+    private final static ReentrantLock LOCK = new ReentrantLock();
+    private static volatile ThreadPoolExecutor workers = null;
+
+    private Auth(){}
+
+    // Token bucket of password attempts for one address
+    private static class Bucket {
+        double tokens = attemptsPerMinute;
+        long refilled = System.nanoTime();
+    }
+
+    /************************************************************************
+     * Checks a password on the auth pool.
+     * @param password The password as typed
+     * @param stored The hash from the player record
+     * @return CompletableFuture completing with true if the password matches
+     * @throws RejectedExecutionException if the queue is full
+     ************************************************************************/
+    public static CompletableFuture<Boolean> verify(String password, String stored){
+        return CompletableFuture.supplyAsync(() -> Passwords.verify(password, stored), workers());
+    }
+
+    /************************************************************************
+     * Hashes a new password on the auth pool.
+     * @param password The password as typed
+     * @return CompletableFuture completing with the hash to store
+     * @throws RejectedExecutionException if the queue is full
+     ************************************************************************/
+    public static CompletableFuture<String> hash(String password){
+        return CompletableFuture.supplyAsync(() -> Passwords.hash(password), workers());
+    }
+
+    /************************************************************************
+     * Takes a password attempt from an address's allowance.
+     * @param address Remote address of the connection, may be null
+     * @return boolean - true if the attempt may go ahead, false if the
+     * address has used up its attempts for now.
+     ************************************************************************/
+    public static boolean allow(InetAddress address){
+        if (address == null || attemptsPerMinute <= 0){
+            return true;
+        }
+        if (ATTEMPTS.size() > MAX_TRACKED_ADDRESSES){
+            prune();
+        }
+        boolean[] outcome = {false};
+        ATTEMPTS.compute(address, (a, b) -> {
+            Bucket bucket = b != null ? b : new Bucket();
+            long now = System.nanoTime();
+            bucket.tokens = Math.min(attemptsPerMinute,
+                bucket.tokens + (now - bucket.refilled) * attemptsPerMinute / 60e9);
+            bucket.refilled = now;
+            if (bucket.tokens >= 1){
+                bucket.tokens -= 1;
+                outcome[0] = true;
+            }
+            return bucket;
+        });
+        return outcome[0];
+    }
+
+    public static int queued(){
+        ThreadPoolExecutor w = workers;
+        return w != null ? w.getQueue().size() : 0;
+    }
+
+    private static ThreadPoolExecutor workers(){
+        ThreadPoolExecutor w = workers;
+        if (w == null){
+            LOCK.lock();
+            try {
+                w = workers;
+                if (w == null){
+                    w = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+                        new ArrayBlockingQueue<>(queueDepth), r -> {
+                            Thread t = new Thread(r, "auth-worker");
+                            t.setDaemon(true);
+                            return t;
+                        }, new ThreadPoolExecutor.AbortPolicy());
+                    workers = w;
+                }
+            } finally {
+                LOCK.unlock();
+            }
+        }
+        return w;
+    }
+
+    // Forgets addresses whose allowance has refilled, a minute or more idle
+    private static void prune(){
+        long cutoff = System.nanoTime() - TimeUnit.MINUTES.toNanos(1);
+        ATTEMPTS.values().removeIf(b -> b.refilled < cutoff);
+    }
+}
@@ -0,0 +1,21 @@
+package mclamud;
+
+import java.io.PrintWriter;
+
+/**
+ * Command is one verb a logged in player can type. Implementations are
+ * registered with CommandRegistry under a name and any aliases, and may be
+ * run by any number of threads at once.
+ */
+@FunctionalInterface
+public interface Command {
+
+    /************************************************************************
+     * Runs the command.
+     * @param p Player who typed it
+     * @param line The command line, already split into words
+     * @param out PrintWriter of the player
+     * @return boolean - true if the player's session should end.
+     ************************************************************************/
+    boolean run(Player p, CommandLine line, PrintWriter out);
+}
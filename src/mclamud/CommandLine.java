@@ -0,0 +1,50 @@
+package mclamud;
+
+/**
+ * CommandLine is a line of player input cut into the verb, the first word
+ * after it and the rest of the line. It is split by scanning for spaces
+ * once, so no regular expression or token array is involved, and runs of
+ * spaces between words count as one.
+ */
+public class CommandLine {
+    public final String text;   // the whole line, trimmed
+    public final String verb;   // as typed, "" for a blank line
+    public final String args;   // everything after the verb, "" if none
+    public final String first;  // first word of args, "" if none
+    public final String rest;   // args after the first word, "" if none
+
+    public CommandLine(String line){
+        text = line.trim();
+        int end = wordEnd(text, 0);
+        verb = text.substring(0, end);
+        args = text.substring(wordStart(text, end));
+        end = wordEnd(args, 0);
+        first = args.substring(0, end);
+        rest = args.substring(wordStart(args, end));
+    }
+
+    /************************************************************************
+     * Counts how many words follow the verb, never more than two since
+     * the rest of the line is one piece.
+     * @return int - 0, 1 or 2.
+     ************************************************************************/
+    public int arity(){
+        return first.isEmpty() ? 0 : rest.isEmpty() ? 1 : 2;
+    }
+
+    private static int wordEnd(String s, int from){
+        int i = from;
+        while (i < s.length() && s.charAt(i) != ' '){
+            i++;
+        }
+        return i;
+    }
+
+    private static int wordStart(String s, int from){
+        int i = from;
+        while (i < s.length() && s.charAt(i) == ' '){
+            i++;
+        }
+        return i;
+    }
+}
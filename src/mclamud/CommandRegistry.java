@@ -0,0 +1,232 @@
+package mclamud;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * CommandRegistry maps what a player types to the Command that runs it.
+ * A verb is looked up by its whole lowercase name or alias in a hash map
+ * first. Failing that, a trie of command names is walked so any unambiguous
+ * start of a name works too, and where a start fits several names the one
+ * registered first wins, so "l" is look and "s" is say rather than save.
+ * Commands registered with registerExact, like quit, must be typed in full.
+ *
+ * Each command keeps a count of how often it has run and how long it took.
+ * The built in commands are in Commands; others can be registered at any
+ * time without touching the session code.
+ */
+public class CommandRegistry {
+    private final static ConcurrentHashMap<String, Entry> EXACT = new ConcurrentHashMap<>();
+    private final static List<Entry> ORDER = new ArrayList<>();
+    private final static ReentrantLock LOCK = new ReentrantLock();
+    private final static Entry UNKNOWN = new Entry("", null, false);
+    // Commands taking longer than this are logged; 0 logs none. Set from
+    // the command line in Server.main.
+    public static int slowMillis = 100;
+    // Rebuilt whenever a command is registered; lookups never lock
+    private static volatile Node trie = new Node();
+
+    static {
+        Commands.install();
+    }
+
+    private CommandRegistry(){}
+
+    /**
+     * Entry is a registered command and its statistics.
+     */
+    public static class Entry {
+        public final String name;
+        final Command command;
+        final boolean abbreviate;
+        final Histogram latency = new Histogram();
+        String[] aliases = {};
+
+        private Entry(String name, Command command, boolean abbreviate){
+            this.name = name;
+            this.command = command;
+            this.abbreviate = abbreviate;
+        }
+
+        public long invocations(){
+            return latency.count();
+        }
+
+        public Histogram latency(){
+            return latency;
+        }
+    }
+
+    private static class Node {
+        char[] keys = {};
+        Node[] children = {};
+        Entry first; // earliest registered command whose name runs through here
+
+        Node child(char c){
+            for (int i = 0; i < keys.length; i++){
+                if (keys[i] == c){
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        Node add(char c){
+            Node n = child(c);
+            if (n == null){
+                n = new Node();
+                keys = Arrays.copyOf(keys, keys.length + 1);
+                children = Arrays.copyOf(children, children.length + 1);
+                keys[keys.length - 1] = c;
+                children[children.length - 1] = n;
+            }
+            return n;
+        }
+    }
+
+    /************************************************************************
+     * Registers a command that may be abbreviated. Registering a name again
+     * replaces the command but keeps its place in the order.
+     * @param name Command name, matched ignoring case
+     * @param command What to run
+     * @param aliases Other names that must be typed in full, like "/l"
+     ************************************************************************/
+    public static void register(String name, Command command, String... aliases){
+        add(name, command, true, aliases);
+    }
+
+    /************************************************************************
+     * Registers a command that only runs when its name or an alias is
+     * typed in full.
+     * @param name Command name, matched ignoring case
+     * @param command What to run
+     * @param aliases Other names
+     ************************************************************************/
+    public static void registerExact(String name, Command command, String... aliases){
+        add(name, command, false, aliases);
+    }
+
+    /************************************************************************
+     * Finds the command for a verb.
+     * @param verb The verb as typed
+     * @return Entry of the command, or null if nothing matches.
+     ************************************************************************/
+    public static Entry find(String verb){
+        String key = verb.toLowerCase();
+        Entry e = EXACT.get(key);
+        if (e == null && !key.isEmpty()){
+            Node n = trie;
+            for (int i = 0; i < key.length() && n != null; i++){
+                n = n.child(key.charAt(i));
+            }
+            if (n != null){
+                e = n.first;
+            }
+        }
+        return e;
+    }
+
+    /************************************************************************
+     * Runs one line typed by a logged in player and times it.
+     * @param p Player who typed it
+     * @param text The line
+     * @param out PrintWriter of the player
+     * @return boolean - true if the player's session should end.
+     ************************************************************************/
+    public static boolean dispatch(Player p, String text, PrintWriter out){
+        CommandLine line = new CommandLine(text);
+        if (line.verb.isEmpty()){
+            return false;
+        }
+        Entry e = find(line.verb);
+        long start = System.nanoTime();
+        try {
+            if (e != null){
+                return e.command.run(p, line, out);
+            }
+            out.println("Command \"" + line.text + "\" is not valid.");
+            return false;
+        } finally {
+            long took = System.nanoTime() - start;
+            (e != null ? e : UNKNOWN).latency.record(took);
+            if (slowMillis > 0 && took > slowMillis * 1000000L){
+                Log.warn("Slow command", "player", p.name, "area", p.location, "command", line.text,
+                    "ms", took / 1000000);
+            }
+        }
+    }
+
+    /************************************************************************
+     * Lists the registered commands in the order they were registered.
+     * @return List of Entry objects
+     ************************************************************************/
+    public static List<Entry> entries(){
+        LOCK.lock();
+        try {
+            return Collections.unmodifiableList(new ArrayList<>(ORDER));
+        } finally {
+            LOCK.unlock();
+        }
+    }
+
+    public static long unknown(){
+        return UNKNOWN.invocations();
+    }
+
+    private static void add(String name, Command command, boolean abbreviate, String[] aliases){
+        String key = name.toLowerCase().intern();
+        Entry e = new Entry(key, command, abbreviate);
+        e.aliases = new String[aliases.length];
+        LOCK.lock();
+        try {
+            int at = indexOf(key);
+            if (at >= 0){
+                for (String alias : ORDER.get(at).aliases){
+                    EXACT.remove(alias);
+                }
+                ORDER.set(at, e);
+            } else {
+                ORDER.add(e);
+            }
+            EXACT.put(key, e);
+            for (int i = 0; i < aliases.length; i++){
+                e.aliases[i] = aliases[i].toLowerCase().intern();
+                EXACT.put(e.aliases[i], e);
+            }
+            trie = build();
+        } finally {
+            LOCK.unlock();
+        }
+    }
+
+    private static int indexOf(String key){
+        for (int i = 0; i < ORDER.size(); i++){
+            if (ORDER.get(i).name.equals(key)){
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Called with LOCK held
+    private static Node build(){
+        Node root = new Node();
+        for (Entry e : ORDER){
+            if (e.abbreviate){
+                Node n = root;
+                for (int i = 0; i < e.name.length(); i++){
+                    n = n.add(e.name.charAt(i));
+                    if (n.first == null){
+                        n.first = e;
+                    }
+                }
+            }
+        }
+        return root;
+    }
+}
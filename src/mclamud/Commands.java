@@ -0,0 +1,151 @@
+package mclamud;
+
+import Sorting.BubbleSort;
+import java.io.PrintWriter;
+
+/**
+ * Commands holds the built in commands and registers them with
+ * CommandRegistry. The order of registration decides which command an
+ * ambiguous abbreviation means, so the everyday ones come first.
+ */
+class Commands {
+
+    private Commands(){}
+
+    static void install(){
+        CommandRegistry.register("walk", Commands::walk, "go", "w", "g");
+        CommandRegistry.register("look", Commands::look, "/l");
+        CommandRegistry.register("get", Commands::get, "take");
+        CommandRegistry.register("drop", Commands::drop);
+        CommandRegistry.register("say", (p, line, out) -> {
+            if (!line.args.isEmpty()){
+                World.sendMessageToArea(p, line.args);
+            }
+            return false;
+        });
+        CommandRegistry.register("yell", (p, line, out) -> {
+            if (!line.args.isEmpty()){
+                World.sendMessageToWorld(p, line.args);
+            }
+            return false;
+        });
+        CommandRegistry.register("shout", (p, line, out) -> {
+            if (!line.args.isEmpty()){
+                World.shout(p, line.args);
+            }
+            return false;
+        });
+        CommandRegistry.register("inventory", (p, line, out) -> {
+            World.listInventory(out, p);
+            return false;
+        }, "/i");
+        CommandRegistry.register("describe", Commands::describe);
+        CommandRegistry.register("whisper", (p, line, out) -> {
+            if (line.arity() > 1){
+                World.sendMessageToPlayer(p, line.first, line.rest);
+            }
+            return false;
+        }, "/w");
+        CommandRegistry.register("emote", (p, line, out) -> {
+            if (line.arity() > 1){
+                World.sendEmotetoPlayer(p, line.first, line.rest);
+            }
+            return false;
+        }, "/e");
+        CommandRegistry.register("save", (p, line, out) -> {
+            PlayerSaver.save(p);
+            out.println("Player Saved...");
+            World.displayArea(p.location, p);
+            return false;
+        });
+        CommandRegistry.register("bsort", (p, line, out) -> {
+            int[] input = { 4, 2, 9, 6, 23, 12, 34, 0, 1 };
+            BubbleSort.bubble_srt(out, input);
+            return false;
+        });
+        CommandRegistry.registerExact("quit", (p, line, out) -> {
+            PlayerSaver.save(p);
+            return true;
+        }, "exit");
+    }
+
+    private static boolean walk(Player p, CommandLine line, PrintWriter out){
+        if (line.first.isEmpty()){
+            World.helpMe(out, "walk", true);
+        } else if (World.doWalk(p, line.first)){
+            World.displayArea(p.location, p);
+        } else {
+            out.println("You can't go in that direction.");
+        }
+        return false;
+    }
+
+    /************************************************************************
+     * look on its own shows the room, look with a direction shows the room
+     * that way and look with a name shows that player if they are here.
+     ************************************************************************/
+    private static boolean look(Player p, CommandLine line, PrintWriter out){
+        switch (line.arity()){
+            case 0:
+                World.displayArea(p.location, p);
+                break;
+            case 1:
+                switch (line.first.toLowerCase()){
+                    case "north":
+                    case "n":
+                    case "south":
+                    case "s":
+                    case "west":
+                    case "w":
+                    case "east":
+                    case "e":
+                    case "up":
+                    case "u":
+                    case "down":
+                    case "d":
+                        World.doLook(out, p, line.first);
+                        break;
+                    default:
+                        Player x = PlayerRegistry.find(line.first);
+                        if (x != null && x.location == p.location){
+                            out.println(x.description);
+                        } else {
+                            World.helpMe(out, "look", true);
+                        }
+                }
+                break;
+            default:
+                World.helpMe(out, "look", true);
+        }
+        return false;
+    }
+
+    private static boolean get(Player p, CommandLine line, PrintWriter out){
+        if (!line.first.isEmpty()){
+            World.getItem(line.first, p);
+        }
+        PlayerSaver.markDirty(p);
+        World.displayArea(p.location, p);
+        return false;
+    }
+
+    private static boolean drop(Player p, CommandLine line, PrintWriter out){
+        if (!line.first.isEmpty() && p.inventory.contains(line.first)){
+            World.dropItem(line.first, p);
+        }
+        PlayerSaver.markDirty(p);
+        World.displayArea(p.location, p);
+        return false;
+    }
+
+    private static boolean describe(Player p, CommandLine line, PrintWriter out){
+        if (line.args.isEmpty()){
+            World.helpMe(out, "describe", true);
+        } else {
+            p.description = line.args;
+            Journal.recordDescription(p);
+            PlayerSaver.markDirty(p);
+        }
+        return false;
+    }
+}
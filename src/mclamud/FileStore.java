@@ -0,0 +1,144 @@
+package mclamud;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * FileStore keeps one file per record, areas/ID.area and
+ * players/name.player, the layout the MUD has always used.
+ */
+public class FileStore implements PlayerStore, AreaStore {
+    private final Path areaDir;
+    private final Path playerDir;
+
+    public FileStore(){
+        this(Paths.get("areas"), Paths.get("players"));
+    }
+
+    public FileStore(Path areaDir, Path playerDir){
+        this.areaDir = areaDir;
+        this.playerDir = playerDir;
+    }
+
+    @Override
+    public Area load(int areaId){
+        Area a = null;
+        Path path = areaPath(areaId);
+        try {
+            CharBuffer text = RecordReader.read(path);
+            if (text != null){
+                a = World.parseArea(text);
+            }
+        } catch (IOException e){
+            Log.error("An error occurred reading a file", "path", path, "error", e.getMessage());
+        }
+        return a;
+    }
+
+    @Override
+    public int[] ids(){
+        File[] files = areaDir.toFile().listFiles((dir, name) -> name.matches("\\d+\\.area"));
+        if (files == null){
+            files = new File[0];
+        }
+        return Arrays.stream(files)
+            .mapToInt(f -> Integer.parseInt(f.getName().substring(0, f.getName().indexOf('.'))))
+            .sorted()
+            .toArray();
+    }
+
+    /************************************************************************
+     * Lists every player with a file.
+     * @return String[] of player names
+     ************************************************************************/
+    public String[] names(){
+        File[] files = playerDir.toFile().listFiles((dir, name) -> name.endsWith(".player"));
+        if (files == null){
+            files = new File[0];
+        }
+        return Arrays.stream(files)
+            .map(f -> f.getName().substring(0, f.getName().length() - ".player".length()))
+            .toArray(String[]::new);
+    }
+
+    @Override
+    public boolean exists(String name){
+        return Files.exists(playerPath(name));
+    }
+
+    @Override
+    public String read(String name){
+        String contents = null;
+        Path path = playerPath(name);
+        try {
+            CharBuffer text = RecordReader.read(path);
+            if (text != null){
+                contents = text.toString();
+            }
+        } catch (IOException e){
+            Log.error("An error occurred reading a file", "path", path, "error", e.getMessage());
+        }
+        return contents;
+    }
+
+    /************************************************************************
+     * Writes the record to a temporary file and then renames it over
+     * name.player once it is forced to disk, so a crash part way through
+     * never leaves a truncated player file behind.
+     * @param name Player name
+     * @param contents Record in the .player format
+     * @return boolean indication failure or success
+     ************************************************************************/
+    @Override
+    public boolean write(String name, String contents){
+        boolean outcome = true;
+        Path path = playerPath(name);
+        Path temp = playerDir.resolve(name.concat(".player.tmp").toLowerCase());
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
+                ByteBuffer bytes = ByteBuffer.wrap(contents.getBytes(StandardCharsets.UTF_8));
+                while (bytes.hasRemaining()){
+                    channel.write(bytes);
+                }
+                // On disk before the rename, or a crash could leave an
+                // empty file under the real name
+                channel.force(true);
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e){
+            outcome = false;
+            Log.error("An error occurred writing a file", "path", path, "error", e.getMessage());
+        }
+        return outcome;
+    }
+
+    @Override
+    public boolean writeAll(Map<String, String> records){
+        boolean outcome = true;
+        for (Map.Entry<String, String> e : records.entrySet()){
+            outcome &= write(e.getKey(), e.getValue());
+        }
+        return outcome;
+    }
+
+    Path areaPath(int areaId){
+        return areaDir.resolve(areaId + ".area");
+    }
+
+    Path playerPath(String name){
+        return playerDir.resolve(name.concat(".player").toLowerCase());
+    }
+}
@@ -0,0 +1,73 @@
+package mclamud;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram counts durations in power-of-two buckets of nanoseconds, so
+ * recording one is a couple of atomic adds and the whole thing is a fixed
+ * few hundred bytes however many are recorded. Percentiles come back as the
+ * upper bound of the bucket they fall in, which is within a factor of two.
+ */
+public class Histogram {
+    private final static int BUCKETS = 48;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /************************************************************************
+     * Records one duration.
+     * @param nanos Duration in nanoseconds
+     ************************************************************************/
+    public void record(long nanos){
+        long n = Math.max(nanos, 1);
+        int bucket = Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(n));
+        counts.incrementAndGet(bucket);
+        total.incrementAndGet();
+        sum.addAndGet(n);
+        long m;
+        while (n > (m = max.get()) && !max.compareAndSet(m, n)){
+        }
+    }
+
+    public long count(){
+        return total.get();
+    }
+
+    public long max(){
+        return max.get();
+    }
+
+    public long sum(){
+        return sum.get();
+    }
+
+    public long mean(){
+        long c = total.get();
+        return c == 0 ? 0 : sum.get() / c;
+    }
+
+    /************************************************************************
+     * Estimates a percentile.
+     * @param p Percentile wanted, from 0 to 100
+     * @return long - nanoseconds that at least p percent of recorded
+     * durations did not exceed, or 0 if nothing has been recorded.
+     ************************************************************************/
+    public long percentile(double p){
+        long c = total.get();
+        if (c == 0){
+            return 0;
+        }
+        long wanted = Math.max(1, (long) Math.ceil(c * p / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++){
+            seen += counts.get(i);
+            if (seen >= wanted){
+                return Math.min((1L << (i + 1)) - 1, max.get());
+            }
+        }
+        return max.get();
+    }
+}
@@ -0,0 +1,219 @@
+package mclamud;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Interest keeps track of who is near enough to hear what happens in each
+ * area. A player standing in an area listens to every area within radius
+ * steps of it along the exits, so each area holds its listeners together
+ * with how many steps away each one is standing. An event is then sent to
+ * the listeners of the area it happens in that are close enough, and costs
+ * as much as its audience, not the whole world.
+ *
+ * The areas within reach of an area are found once, by walking its exits,
+ * since exits never change after loading. A player's listening is moved
+ * along in World.movePlayer and dropped in World.removePlayer.
+ */
+public class Interest {
+    // Set from the command line in Server.main. radius is how far a shout
+    // carries and so how far listening reaches; movementRadius is how far
+    // away arrivals and departures are noticed, 0 for the room only.
+    public static int radius = 2;
+    public static int movementRadius = 0;
+
+    private final static ConcurrentHashMap<Player, Integer> PLACED = new ConcurrentHashMap<>();
+    private final static LongAdder DELIVERED = new LongAdder();
+
+    /**
+     * Reach is the areas within radius steps of an area, nearest first,
+     * and how many steps away each is.
+     */
+    static class Reach {
+        final int[] ids;
+        final int[] hops;
+
+        Reach(int[] ids, int[] hops){
+            this.ids = ids;
+            this.hops = hops;
+        }
+    }
+
+    private Interest(){}
+
+    /************************************************************************
+     * Makes a player listen from an area, stopping listening from wherever
+     * they were before. Areas in reach of both keep the player.
+     * @param p Player object
+     * @param areaId Area the player is now in
+     ************************************************************************/
+    public static void move(Player p, int areaId){
+        Integer old = PLACED.put(p, areaId);
+        if (old != null && old == areaId){
+            return;
+        }
+        Reach now = reach(areaId);
+        if (old != null){
+            Reach before = reach(old);
+            for (int id : before.ids){
+                Area a = contains(now.ids, id) ? null : World.getArea(id);
+                if (a != null){
+                    a.listeners.remove(p);
+                }
+            }
+        }
+        for (int i = 0; i < now.ids.length; i++){
+            Area a = World.getArea(now.ids[i]);
+            if (a != null){
+                a.listeners.put(p, now.hops[i]);
+            }
+        }
+    }
+
+    /************************************************************************
+     * Stops a player listening anywhere, when they leave the world.
+     * @param p Player object
+     ************************************************************************/
+    public static void leave(Player p){
+        Integer old = PLACED.remove(p);
+        if (old != null){
+            for (int id : reach(old).ids){
+                Area a = World.getArea(id);
+                if (a != null){
+                    a.listeners.remove(p);
+                }
+            }
+        }
+    }
+
+    /************************************************************************
+     * Sends a message to everyone listening to an area from between two
+     * distances, other than the player it came from. The message is
+     * encoded once for all of them.
+     * @param source Player the message came from, or null
+     * @param areaId Area where it happened
+     * @param nearest Fewest steps away a listener may be, 0 for the area
+     * itself
+     * @param farthest Most steps away, at most radius
+     * @param message Text to send
+     * @return int - the number of players it was sent to.
+     ************************************************************************/
+    public static int publish(Player source, int areaId, int nearest, int farthest, String message){
+        return publish(source, areaId, nearest, farthest, 0, message);
+    }
+
+    /************************************************************************
+     * Sends a message like publish, leaving out the players standing in one
+     * other area, who are told about it some other way.
+     * @param source Player the message came from, or null
+     * @param areaId Area where it happened
+     * @param nearest Fewest steps away a listener may be, 0 for the area
+     * itself
+     * @param farthest Most steps away, at most radius
+     * @param except Area whose occupants are left out, 0 for none
+     * @param message Text to send
+     * @return int - the number of players it was sent to.
+     ************************************************************************/
+    public static int publish(Player source, int areaId, int nearest, int farthest, int except, String message){
+        int sent = 0;
+        Area a = World.getArea(areaId);
+        Area skip = except > 0 ? World.getArea(except) : null;
+        if (a != null){
+            byte[] encoded = null;
+            for (Map.Entry<Player, Integer> e : a.listeners.entrySet()){
+                int hops = e.getValue();
+                Player listener = e.getKey();
+                if (hops >= nearest && hops <= farthest && listener != source
+                        && (skip == null || !Integer.valueOf(0).equals(skip.listeners.get(listener)))){
+                    if (encoded == null){
+                        encoded = Outbound.encode(message);
+                    }
+                    listener.outbound.sendShared(encoded);
+                    sent++;
+                }
+            }
+        }
+        DELIVERED.add(sent);
+        return sent;
+    }
+
+    /************************************************************************
+     * Counts the players listening to an area from a given distance or
+     * closer.
+     * @param areaId Area ID
+     * @param farthest Most steps away
+     * @return int - the size of the audience.
+     ************************************************************************/
+    public static int audience(int areaId, int farthest){
+        int count = 0;
+        Area a = World.getArea(areaId);
+        if (a != null){
+            for (int hops : a.listeners.values()){
+                if (hops <= farthest){
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    public static long delivered(){
+        return DELIVERED.sum();
+    }
+
+    // A reach holds a few dozen areas at most, so a scan beats hashing
+    private static boolean contains(int[] ids, int id){
+        for (int x : ids){
+            if (x == id){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Walks the exits breadth first, once per area; two threads racing to
+    // fill it in find the same answer
+    static Reach reach(int areaId){
+        Area a = World.getArea(areaId);
+        if (a == null){
+            return new Reach(new int[]{areaId}, new int[]{0});
+        }
+        Reach r = a.reach;
+        if (r == null){
+            Map<Integer, Integer> found = new HashMap<>();
+            ArrayDeque<Integer> queue = new ArrayDeque<>();
+            found.put(areaId, 0);
+            queue.add(areaId);
+            int[] ids = new int[]{areaId};
+            int[] hops = new int[]{0};
+            int n = 1;
+            while (!queue.isEmpty()){
+                int id = queue.poll();
+                int distance = found.get(id);
+                Area here = id == areaId ? a : World.getArea(id);
+                if (here == null || distance == radius){
+                    continue;
+                }
+                for (int exit : here.exits){
+                    if (exit > 0 && !found.containsKey(exit)){
+                        found.put(exit, distance + 1);
+                        queue.add(exit);
+                        if (n == ids.length){
+                            ids = Arrays.copyOf(ids, n * 2);
+                            hops = Arrays.copyOf(hops, n * 2);
+                        }
+                        ids[n] = exit;
+                        hops[n++] = distance + 1;
+                    }
+                }
+            }
+            r = new Reach(Arrays.copyOf(ids, n), Arrays.copyOf(hops, n));
+            a.reach = r;
+        }
+        return r;
+    }
+}
@@ -0,0 +1,200 @@
+package mclamud;
+
+import java.util.Arrays;
+
+/**
+ * ItemBag holds a room's or a player's items as item ID to count, in an
+ * open addressing table of two int arrays. Adding, taking and testing for
+ * an item are O(1) and a stack of identical items costs one slot however
+ * tall it is. A bag is not thread safe; areas guard theirs with the area
+ * lock and a player's is only changed by the thread running their
+ * commands, under the lock of the area they are in.
+ */
+public class ItemBag {
+    private int[] keys = new int[4];   // item IDs, 0 for an empty slot
+    private int[] counts = new int[4];
+    private int distinct = 0;
+    private int total = 0;
+
+    /************************************************************************
+     * Adds items.
+     * @param id Item ID, ignored if not positive
+     * @param n How many
+     ************************************************************************/
+    public void add(int id, int n){
+        if (id <= 0 || n <= 0){
+            return;
+        }
+        int slot = slot(id);
+        if (keys[slot] == 0){
+            if ((distinct + 1) * 4 > keys.length * 3){
+                grow();
+                slot = slot(id);
+            }
+            keys[slot] = id;
+            distinct++;
+        }
+        counts[slot] += n;
+        total += n;
+    }
+
+    public void add(String name){
+        add(Items.id(name), 1);
+    }
+
+    /************************************************************************
+     * Takes one of an item out of the bag.
+     * @param id Item ID
+     * @return boolean - true if there was one to take.
+     ************************************************************************/
+    public boolean remove(int id){
+        if (id <= 0){
+            return false;
+        }
+        int slot = slot(id);
+        if (keys[slot] == 0){
+            return false;
+        }
+        total--;
+        if (--counts[slot] == 0){
+            delete(slot);
+        }
+        return true;
+    }
+
+    public int count(int id){
+        if (id <= 0){
+            return 0;
+        }
+        int slot = slot(id);
+        return keys[slot] == 0 ? 0 : counts[slot];
+    }
+
+    public boolean contains(int id){
+        return count(id) > 0;
+    }
+
+    public boolean contains(String name){
+        return contains(Items.find(name));
+    }
+
+    public boolean isEmpty(){
+        return total == 0;
+    }
+
+    // Number of items, counting every one in a stack
+    public int size(){
+        return total;
+    }
+
+    // Number of different items
+    public int distinct(){
+        return distinct;
+    }
+
+    public void clear(){
+        Arrays.fill(keys, 0);
+        Arrays.fill(counts, 0);
+        distinct = 0;
+        total = 0;
+    }
+
+    public void addAll(ItemBag other){
+        for (int i = 0; i < other.keys.length; i++){
+            if (other.keys[i] != 0){
+                add(other.keys[i], other.counts[i]);
+            }
+        }
+    }
+
+    public void addAll(Iterable<String> names){
+        for (String name : names){
+            add(name);
+        }
+    }
+
+    /************************************************************************
+     * Lists the different items in the bag, in the order their IDs were
+     * given out so a room always shows its items the same way.
+     * @return int[] of item IDs
+     ************************************************************************/
+    public int[] ids(){
+        int[] ids = new int[distinct];
+        int n = 0;
+        for (int key : keys){
+            if (key != 0){
+                ids[n++] = key;
+            }
+        }
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    /************************************************************************
+     * Renders the bag the way records store it: a comma separated list of
+     * names with one entry per item, so a stack of three is three entries.
+     * @return String such as "sword,coin,coin,coin"
+     ************************************************************************/
+    public String format(){
+        StringBuilder list = new StringBuilder();
+        for (int id : ids()){
+            String name = Items.name(id);
+            for (int i = count(id); i > 0; i--){
+                if (list.length() > 0){
+                    list.append(',');
+                }
+                list.append(name);
+            }
+        }
+        return list.toString();
+    }
+
+    // Slot holding id, or the empty slot where it would go
+    private int slot(int id){
+        int mask = keys.length - 1;
+        int i = home(id, mask);
+        while (keys[i] != 0 && keys[i] != id){
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    private static int home(int id, int mask){
+        int h = id * 0x9E3779B9;
+        return (h ^ h >>> 16) & mask;
+    }
+
+    private void grow(){
+        int[] oldKeys = keys;
+        int[] oldCounts = counts;
+        keys = new int[oldKeys.length * 2];
+        counts = new int[oldKeys.length * 2];
+        for (int i = 0; i < oldKeys.length; i++){
+            if (oldKeys[i] != 0){
+                int slot = slot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                counts[slot] = oldCounts[i];
+            }
+        }
+    }
+
+    // Empties a slot and moves later entries of the same run back into it,
+    // so lookups never stop early at a hole
+    private void delete(int slot){
+        int mask = keys.length - 1;
+        int hole = slot;
+        int i = (slot + 1) & mask;
+        while (keys[i] != 0){
+            int home = home(keys[i], mask);
+            if (((i - home) & mask) >= ((i - hole) & mask)){
+                keys[hole] = keys[i];
+                counts[hole] = counts[i];
+                hole = i;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[hole] = 0;
+        counts[hole] = 0;
+        distinct--;
+    }
+}
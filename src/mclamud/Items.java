@@ -0,0 +1,75 @@
+package mclamud;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Items is the registry of item types. Each distinct item name is given a
+ * small int ID the first time it is seen, and rooms and players hold those
+ * IDs in an ItemBag instead of holding the names. IDs start at 1 and are
+ * only good for the life of the server; records on disk keep the names.
+ */
+public class Items {
+    private final static ConcurrentHashMap<String, Integer> IDS = new ConcurrentHashMap<>();
+    private final static ReentrantLock LOCK = new ReentrantLock();
+    private static volatile String[] names = new String[64];
+    private static int next = 1;
+
+    private Items(){}
+
+    /************************************************************************
+     * Gets the ID of an item name, registering it if it is new.
+     * @param name Item name, matched exactly after trimming
+     * @return int - the item ID, or 0 if the name is blank.
+     ************************************************************************/
+    public static int id(String name){
+        String key = name.trim();
+        if (key.isEmpty()){
+            return 0;
+        }
+        Integer id = IDS.get(key);
+        if (id == null){
+            LOCK.lock();
+            try {
+                id = IDS.get(key);
+                if (id == null){
+                    id = next++;
+                    if (id == names.length){
+                        names = Arrays.copyOf(names, names.length * 2);
+                    }
+                    names[id] = key;
+                    IDS.put(key, id);
+                }
+            } finally {
+                LOCK.unlock();
+            }
+        }
+        return id;
+    }
+
+    /************************************************************************
+     * Gets the ID of an item name without registering it, for names typed
+     * by players.
+     * @param name Item name
+     * @return int - the item ID, or 0 if no such item has been seen.
+     ************************************************************************/
+    public static int find(String name){
+        Integer id = IDS.get(name.trim());
+        return id != null ? id : 0;
+    }
+
+    /************************************************************************
+     * Gets the name of an item ID.
+     * @param id Item ID from id or find
+     * @return String - the name, or null if the ID was never given out.
+     ************************************************************************/
+    public static String name(int id){
+        String[] n = names;
+        return id > 0 && id < n.length ? n[id] : null;
+    }
+
+    public static int size(){
+        return IDS.size();
+    }
+}
@@ -0,0 +1,323 @@
+package mclamud;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Journal is the append-only log of changes to the world. Each change is
+ * one line on the end of world.journal holding the new value of whatever
+ * changed: the items in an area, or a player's location, description or
+ * inventory. Every entry is a whole value and the last one wins, so an
+ * entry replayed twice does no harm.
+ *
+ * On an interval the latest value of everything is written to
+ * world.snapshot and the journal starts over. At startup the snapshot and
+ * then the journal are replayed, and the values are laid over areas and
+ * players as they are loaded from their files.
+ */
+public class Journal {
+    private final static Path JOURNAL = Paths.get("world.journal");
+    private final static Path OLD_JOURNAL = Paths.get("world.journal.old");
+    private final static Path SNAPSHOT = Paths.get("world.snapshot");
+    private final static Path SNAPSHOT_TEMP = Paths.get("world.snapshot.tmp");
+
+    // Latest value of everything journaled, keyed by kind, tab, key
+    private final static ConcurrentHashMap<String, String> STATE = new ConcurrentHashMap<>();
+    // Guards writer; a ReentrantLock so a virtual thread appending does not
+    // pin its carrier
+    private final static ReentrantLock LOCK = new ReentrantLock();
+    // Held for a whole snapshot, so the interval and the shutdown hook never
+    // write the temporary file or rotate the journal at the same time
+    private final static ReentrantLock SNAPSHOT_LOCK = new ReentrantLock();
+    private static Writer writer = null;
+    private static ScheduledExecutorService scheduler = null;
+
+    private Journal(){}
+
+    /************************************************************************
+     * Replays the snapshot and journal, compacts them, and starts taking
+     * snapshots on an interval and at shutdown. Call before any area or
+     * player is loaded.
+     * @param snapshotSeconds Seconds between snapshots
+     ************************************************************************/
+    public static synchronized void start(int snapshotSeconds){
+        if (scheduler == null){
+            int entries = replay(SNAPSHOT) + replay(OLD_JOURNAL) + replay(JOURNAL);
+            Log.info("Replayed journal", "entries", entries);
+            // New entries must not be appended onto a line a crash cut off
+            dropTornTail(OLD_JOURNAL);
+            dropTornTail(JOURNAL);
+            LOCK.lock();
+            try {
+                writer = open();
+            } catch (IOException ex){
+                Log.error("An error occurred opening the journal", "path", JOURNAL, "error", ex.getMessage());
+            } finally {
+                LOCK.unlock();
+            }
+            snapshot();
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "journal-snapshot");
+                t.setDaemon(true);
+                return t;
+            });
+            scheduler.scheduleWithFixedDelay(Journal::snapshot, snapshotSeconds,
+                snapshotSeconds, TimeUnit.SECONDS);
+            Runtime.getRuntime().addShutdownHook(new Thread(Journal::snapshot, "journal-shutdown"));
+        }
+    }
+
+    /************************************************************************
+     * Journals the items in an area. Call while holding the area's lock.
+     * @param areaId The area's number, as used by World.getArea
+     * @param a Area object
+     ************************************************************************/
+    public static void recordItems(int areaId, Area a){
+        append("items", String.valueOf(areaId), a.items.format());
+    }
+
+    public static void recordLocation(Player p){
+        append("location", p.name.toLowerCase(), String.valueOf(p.location));
+    }
+
+    public static void recordDescription(Player p){
+        append("description", p.name.toLowerCase(), p.description);
+    }
+
+    public static void recordInventory(Player p){
+        append("inventory", p.name.toLowerCase(), p.inventory.format());
+    }
+
+    /************************************************************************
+     * Lays journaled values over an area just read from its file.
+     * @param areaId The area's number, as used by World.getArea
+     * @param a Area object
+     ************************************************************************/
+    public static void restore(int areaId, Area a){
+        String items = STATE.get("items\t" + areaId);
+        if (items != null){
+            a.items.clear();
+            a.items.addAll(RecordReader.splitList(items));
+        }
+    }
+
+    /************************************************************************
+     * Lays journaled values over a player just read from their file.
+     * @param p Player object
+     ************************************************************************/
+    public static void restore(Player p){
+        String key = p.name.toLowerCase();
+        String location = STATE.get("location\t" + key);
+        if (location != null){
+            p.location = Integer.parseInt(location);
+        }
+        String description = STATE.get("description\t" + key);
+        if (description != null){
+            p.description = description;
+        }
+        String inventory = STATE.get("inventory\t" + key);
+        if (inventory != null){
+            p.inventory.clear();
+            p.inventory.addAll(RecordReader.splitList(inventory));
+        }
+    }
+
+    /************************************************************************
+     * Writes the latest value of everything to the snapshot and empties the
+     * journal. The journal is set aside before the snapshot is written and
+     * only deleted once the snapshot is in place, so a crash at any point
+     * still replays to the latest state. If an earlier snapshot never
+     * landed, its set-aside journal is still needed, so the journal is left
+     * to grow until a snapshot succeeds.
+     ************************************************************************/
+    public static void snapshot(){
+        SNAPSHOT_LOCK.lock();
+        try {
+            writeSnapshot();
+        } finally {
+            SNAPSHOT_LOCK.unlock();
+        }
+    }
+
+    private static void writeSnapshot(){
+        LOCK.lock();
+        try {
+            if (writer == null){
+                return;
+            }
+            if (!Files.exists(OLD_JOURNAL)){
+                writer.close();
+                Files.move(JOURNAL, OLD_JOURNAL);
+                writer = open();
+            }
+        } catch (IOException ex){
+            Log.error("An error occurred rotating the journal", "path", JOURNAL, "error", ex.getMessage());
+            return;
+        } finally {
+            LOCK.unlock();
+        }
+        try {
+            try (Writer out = Files.newBufferedWriter(SNAPSHOT_TEMP, StandardCharsets.UTF_8)){
+                for (Map.Entry<String, String> e : STATE.entrySet()){
+                    out.write(e.getKey() + "\t" + escape(e.getValue()) + "\n");
+                }
+            }
+            Files.move(SNAPSHOT_TEMP, SNAPSHOT, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+            Files.deleteIfExists(OLD_JOURNAL);
+        } catch (IOException ex){
+            Log.error("An error occurred writing the snapshot", "path", SNAPSHOT, "error", ex.getMessage());
+        }
+    }
+
+    private static void append(String kind, String key, String value){
+        String line = kind + "\t" + key + "\t" + escape(value) + "\n";
+        LOCK.lock();
+        try {
+            STATE.put(kind + "\t" + key, value);
+            if (writer != null){
+                writer.write(line);
+                writer.flush();
+            }
+        } catch (IOException ex){
+            Log.error("An error occurred writing the journal", "path", JOURNAL, "error", ex.getMessage());
+        } finally {
+            LOCK.unlock();
+        }
+    }
+
+    // Cuts a file back to just after its last '\n'. The byte never occurs
+    // inside a multi-byte UTF-8 character, so it is found from the end.
+    private static void dropTornTail(Path path){
+        if (!Files.exists(path)){
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)){
+            ByteBuffer block = ByteBuffer.allocate(4096);
+            long end = channel.size();
+            long keep = 0;
+            while (end > 0 && keep == 0){
+                long start = Math.max(0, end - block.capacity());
+                block.clear();
+                block.limit((int) (end - start));
+                int n = 0;
+                while (block.hasRemaining() && n >= 0){
+                    n = channel.read(block, start + block.position());
+                }
+                for (int i = block.position() - 1; i >= 0 && keep == 0; i--){
+                    if (block.get(i) == '\n'){
+                        keep = start + i + 1;
+                    }
+                }
+                end = start;
+            }
+            if (keep < channel.size()){
+                channel.truncate(keep);
+                channel.force(true);
+            }
+        } catch (IOException ex){
+            Log.error("An error occurred trimming the journal", "path", path, "error", ex.getMessage());
+        }
+    }
+
+    private static Writer open() throws IOException {
+        return Files.newBufferedWriter(JOURNAL, StandardCharsets.UTF_8,
+            StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private static int replay(Path path){
+        int entries = 0;
+        if (Files.exists(path)){
+            try (BufferedReader in = Files.newBufferedReader(path, StandardCharsets.UTF_8)){
+                // Only lines that made it to their '\n' count. A crash can
+                // leave the last one cut off anywhere, even inside a value
+                // with all its tabs, so the unterminated tail is dropped.
+                StringBuilder line = new StringBuilder(256);
+                int c;
+                while ((c = in.read()) != -1){
+                    if (c != '\n'){
+                        line.append((char) c);
+                        continue;
+                    }
+                    String[] entry = line.toString().split("\t", 3);
+                    if (entry.length == 3){
+                        STATE.put(entry[0] + "\t" + entry[1], unescape(entry[2]));
+                        entries++;
+                    }
+                    line.setLength(0);
+                }
+                if (line.length() > 0){
+                    Log.warn("Dropped a torn journal entry", "path", path, "length", line.length());
+                }
+            } catch (IOException ex){
+                Log.error("An error occurred reading the journal", "path", path, "error", ex.getMessage());
+            }
+        }
+        return entries;
+    }
+
+    private static String escape(String value){
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++){
+            char c = value.charAt(i);
+            switch (c){
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                default:
+                    sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String unescape(String value){
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++){
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()){
+                char next = value.charAt(++i);
+                switch (next){
+                    case 't':
+                        sb.append('\t');
+                        break;
+                    case 'n':
+                        sb.append('\n');
+                        break;
+                    case 'r':
+                        sb.append('\r');
+                        break;
+                    default:
+                        sb.append(next);
+                }
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
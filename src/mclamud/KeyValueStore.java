@@ -0,0 +1,339 @@
+package mclamud;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * KeyValueStore keeps every player and area record in one file. The file
+ * is a log: a write appends the new record to the end, and an index in
+ * memory maps each key to its latest record. Looking up a key is one
+ * positioned read and testing for one never touches the disk. A batch of
+ * writes is appended and forced to disk together. Once more than half the
+ * file is old versions it is rewritten with only the latest ones.
+ *
+ * File layout, all ints big-endian:
+ *   header  magic
+ *   record  key length, value length, CRC32 of key and value, key bytes,
+ *           value bytes (UTF-8)
+ *
+ * A record cut short or failing its CRC ends the log; it can only be the
+ * last write before a crash, and it is dropped when the file is opened.
+ */
+public class KeyValueStore implements PlayerStore, AreaStore {
+    public final static int MAGIC = 0x4D55444B; // "MUDK"
+    private final static int HEADER_BYTES = 4;
+    private final static int RECORD_HEADER_BYTES = 12;
+    private final static long COMPACT_MIN_BYTES = 1 << 20;
+
+    private final static String AREA_PREFIX = "area/";
+    private final static String PLAYER_PREFIX = "player/";
+
+    /**
+     * Where the latest value of a key is in the file.
+     */
+    private static class Entry {
+        final long position;
+        final int length;
+        final int recordBytes;
+
+        Entry(long position, int length, int recordBytes){
+            this.position = position;
+            this.length = length;
+            this.recordBytes = recordBytes;
+        }
+    }
+
+    private final Path path;
+    // Readers share the channel with positioned reads; appends and
+    // compaction take the write lock.
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Entry> index = new HashMap<>();
+    private FileChannel channel;
+    private long end;
+    private long liveBytes;
+
+    private KeyValueStore(Path path){
+        this.path = path;
+    }
+
+    /************************************************************************
+     * Opens a store, creating the file if it does not exist.
+     * @param path Store file
+     * @return KeyValueStore over the file
+     * @throws IOException if the file cannot be read or is not a store
+     ************************************************************************/
+    public static KeyValueStore open(Path path) throws IOException {
+        KeyValueStore store = new KeyValueStore(path);
+        store.load();
+        return store;
+    }
+
+    public int size(){
+        lock.readLock().lock();
+        try {
+            return index.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /************************************************************************
+     * Copies areas and players from flat files into the store in a single
+     * batch. Used to move an existing world over.
+     * @param files The flat file store to copy
+     * @return int - the number of records copied.
+     * @throws IOException if the store cannot be written
+     ************************************************************************/
+    public int importFrom(FileStore files) throws IOException {
+        Map<String, String> batch = new LinkedHashMap<>();
+        for (int id : files.ids()){
+            CharBuffer text = RecordReader.read(files.areaPath(id));
+            if (text != null){
+                batch.put(AREA_PREFIX + id, text.toString());
+            }
+        }
+        for (String name : files.names()){
+            String contents = files.read(name);
+            if (contents != null){
+                batch.put(PLAYER_PREFIX + name.toLowerCase(), contents);
+            }
+        }
+        putAll(batch);
+        return batch.size();
+    }
+
+    @Override
+    public Area load(int areaId){
+        String text = get(AREA_PREFIX + areaId);
+        return text != null ? World.parseArea(CharBuffer.wrap(text)) : null;
+    }
+
+    @Override
+    public int[] ids(){
+        lock.readLock().lock();
+        try {
+            return index.keySet().stream()
+                .filter(k -> k.startsWith(AREA_PREFIX))
+                .mapToInt(k -> Integer.parseInt(k.substring(AREA_PREFIX.length())))
+                .sorted()
+                .toArray();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean exists(String name){
+        lock.readLock().lock();
+        try {
+            return index.containsKey(PLAYER_PREFIX + name.toLowerCase());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public String read(String name){
+        return get(PLAYER_PREFIX + name.toLowerCase());
+    }
+
+    @Override
+    public boolean write(String name, String contents){
+        Map<String, String> batch = new HashMap<>();
+        batch.put(name, contents);
+        return writeAll(batch);
+    }
+
+    @Override
+    public boolean writeAll(Map<String, String> records){
+        boolean outcome = true;
+        Map<String, String> batch = new LinkedHashMap<>();
+        for (Map.Entry<String, String> e : records.entrySet()){
+            batch.put(PLAYER_PREFIX + e.getKey().toLowerCase(), e.getValue());
+        }
+        try {
+            putAll(batch);
+        } catch (IOException ex){
+            outcome = false;
+            Log.error("An error occurred writing the store", "path", path, "error", ex.getMessage());
+        }
+        return outcome;
+    }
+
+    private String get(String key){
+        String value = null;
+        lock.readLock().lock();
+        try {
+            Entry e = index.get(key);
+            if (e != null){
+                ByteBuffer bytes = ByteBuffer.allocate(e.length);
+                while (bytes.hasRemaining()){
+                    if (channel.read(bytes, e.position + bytes.position()) < 0){
+                        throw new IOException("Unexpected end of file");
+                    }
+                }
+                value = new String(bytes.array(), StandardCharsets.UTF_8);
+            }
+        } catch (IOException ex){
+            Log.error("An error occurred reading the store", "path", path, "key", key, "error", ex.getMessage());
+        } finally {
+            lock.readLock().unlock();
+        }
+        return value;
+    }
+
+    /************************************************************************
+     * Appends a batch of records with one write and one force.
+     * @param batch Values keyed by store key
+     * @throws IOException if the file cannot be written
+     ************************************************************************/
+    private void putAll(Map<String, String> batch) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        Map<String, int[]> placed = new LinkedHashMap<>(); // offset, length, record size
+        for (Map.Entry<String, String> e : batch.entrySet()){
+            byte[] key = e.getKey().getBytes(StandardCharsets.UTF_8);
+            byte[] value = e.getValue().getBytes(StandardCharsets.UTF_8);
+            CRC32 crc = new CRC32();
+            crc.update(key);
+            crc.update(value);
+            int start = out.size();
+            out.writeInt(key.length);
+            out.writeInt(value.length);
+            out.writeInt((int) crc.getValue());
+            out.write(key);
+            out.write(value);
+            placed.put(e.getKey(), new int[]{start + RECORD_HEADER_BYTES + key.length,
+                value.length, out.size() - start});
+        }
+        out.flush();
+        ByteBuffer bytes = ByteBuffer.wrap(buffer.toByteArray());
+        lock.writeLock().lock();
+        try {
+            long start = end;
+            while (bytes.hasRemaining()){
+                channel.write(bytes, start + bytes.position());
+            }
+            channel.force(false);
+            end = start + bytes.limit();
+            for (Map.Entry<String, int[]> e : placed.entrySet()){
+                int[] p = e.getValue();
+                Entry old = index.put(e.getKey(), new Entry(start + p[0], p[1], p[2]));
+                if (old != null){
+                    liveBytes -= old.recordBytes;
+                }
+                liveBytes += p[2];
+            }
+            if (end > COMPACT_MIN_BYTES && end - HEADER_BYTES > liveBytes * 2){
+                compact();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void load() throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = channel.size();
+        if (size == 0){
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(0, MAGIC);
+            channel.write(header, 0);
+            channel.force(false);
+            end = HEADER_BYTES;
+            return;
+        }
+        ByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        if (size < HEADER_BYTES || map.getInt(0) != MAGIC){
+            channel.close();
+            throw new IOException(path + " is not a key-value store.");
+        }
+        int pos = HEADER_BYTES;
+        while (pos + RECORD_HEADER_BYTES <= size){
+            int keyLength = map.getInt(pos);
+            int valueLength = map.getInt(pos + 4);
+            int recordBytes = RECORD_HEADER_BYTES + keyLength + valueLength;
+            if (keyLength < 0 || valueLength < 0 || pos + (long) recordBytes > size){
+                break;
+            }
+            byte[] key = new byte[keyLength];
+            ByteBuffer view = map.duplicate();
+            view.position(pos + RECORD_HEADER_BYTES);
+            view.get(key);
+            view.limit(pos + recordBytes);
+            CRC32 crc = new CRC32();
+            crc.update(key);
+            crc.update(view);
+            if ((int) crc.getValue() != map.getInt(pos + 8)){
+                break;
+            }
+            Entry old = index.put(new String(key, StandardCharsets.UTF_8),
+                new Entry(pos + RECORD_HEADER_BYTES + keyLength, valueLength, recordBytes));
+            if (old != null){
+                liveBytes -= old.recordBytes;
+            }
+            liveBytes += recordBytes;
+            pos += recordBytes;
+        }
+        if (pos < size){
+            Log.warn("Dropping incomplete writes", "path", path, "bytes", size - pos);
+            channel.truncate(pos);
+        }
+        end = pos;
+    }
+
+    /************************************************************************
+     * Rewrites the file with only the latest record of each key. Called
+     * with the write lock held.
+     ************************************************************************/
+    private void compact() throws IOException {
+        Path temp = Paths.get(path.toString() + ".tmp");
+        Map<String, Entry> moved = new HashMap<>();
+        long pos = HEADER_BYTES;
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)){
+            out.write(ByteBuffer.allocate(HEADER_BYTES).putInt(0, MAGIC), 0);
+            for (Map.Entry<String, Entry> e : index.entrySet()){
+                Entry old = e.getValue();
+                long recordStart = old.position + old.length - old.recordBytes;
+                ByteBuffer record = ByteBuffer.allocate(old.recordBytes);
+                while (record.hasRemaining()){
+                    if (channel.read(record, recordStart + record.position()) < 0){
+                        throw new IOException("Unexpected end of file");
+                    }
+                }
+                record.flip();
+                while (record.hasRemaining()){
+                    out.write(record, pos + record.position());
+                }
+                moved.put(e.getKey(), new Entry(pos + old.recordBytes - old.length,
+                    old.length, old.recordBytes));
+                pos += old.recordBytes;
+            }
+            out.force(false);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+        channel.close();
+        channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        index.clear();
+        index.putAll(moved);
+        end = pos;
+        liveBytes = pos - HEADER_BYTES;
+    }
+}
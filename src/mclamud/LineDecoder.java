@@ -0,0 +1,137 @@
+package mclamud;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * LineDecoder cuts a connection's input into trimmed lines, ended by CR,
+ * LF or CR LF. It reuses one read buffer and one line buffer for the life
+ * of the connection, so the only allocation per line is the String handed
+ * out. A line longer than the maximum is cut off there and the rest of it
+ * thrown away, and a token bucket limits how many lines a second a
+ * connection may send.
+ */
+public class LineDecoder {
+    // Set from the command line in Server.main
+    public static int maxLineLength = 1024;
+    public static int linesPerSecond = 20;
+
+    private final byte[] buffer = new byte[1024];
+    private int position = 0;
+    private int limit = 0;
+    private byte[] line = new byte[128];
+    private int length = 0;
+    private boolean afterCr = false;
+
+    // Token bucket: up to two seconds' worth of lines may arrive at once
+    private final int rate = linesPerSecond;
+    private double tokens = 2.0 * rate;
+    private long refilled = System.nanoTime();
+    private boolean throttled = false;
+
+    /************************************************************************
+     * Reads the next line from a blocking stream.
+     * @param in The connection's input
+     * @return String - the trimmed line, or null at end of input.
+     * @throws IOException if the connection fails
+     ************************************************************************/
+    public String readLine(InputStream in) throws IOException {
+        while (true){
+            while (position < limit){
+                if (accept(buffer[position++])){
+                    return take();
+                }
+            }
+            int n = in.read(buffer, 0, buffer.length);
+            if (n < 0){
+                return null;
+            }
+            position = 0;
+            limit = n;
+        }
+    }
+
+    /************************************************************************
+     * Feeds bytes that have already been read, for the NIO front end.
+     * @param bytes Data bytes
+     * @param off Start of the data
+     * @param len Number of bytes
+     * @param lines Called with each complete, trimmed line
+     ************************************************************************/
+    public void feed(byte[] bytes, int off, int len, Consumer<String> lines){
+        for (int i = off; i < off + len; i++){
+            if (accept(bytes[i])){
+                lines.accept(take());
+            }
+        }
+    }
+
+    /************************************************************************
+     * Takes a token for a line. Callers ignore the line when this fails.
+     * @return boolean - true if the line may be run, false if the
+     * connection is sending too fast.
+     ************************************************************************/
+    public boolean allow(){
+        if (rate <= 0){
+            return true;
+        }
+        long now = System.nanoTime();
+        tokens = Math.min(2.0 * rate, tokens + (now - refilled) * rate / 1e9);
+        refilled = now;
+        boolean outcome = tokens >= 1;
+        if (outcome){
+            tokens -= 1;
+            throttled = false;
+        }
+        return outcome;
+    }
+
+    /************************************************************************
+     * Tells whether this is the first refused line since the last allowed
+     * one, so the player is warned once rather than once per line.
+     * @return boolean - true the first time only.
+     ************************************************************************/
+    public boolean firstThrottled(){
+        boolean outcome = !throttled;
+        throttled = true;
+        return outcome;
+    }
+
+    // Returns true when b ends a line. CR, LF and CR LF each end one line;
+    // a client sending CR NUL has the NUL stripped by Telnet, so CR cannot
+    // wait for an LF that may never come.
+    private boolean accept(byte b){
+        boolean cr = afterCr;
+        afterCr = b == '\r';
+        if (b == '\r'){
+            return true;
+        }
+        if (b == '\n'){
+            return !cr; // the CR before it already ended the line
+        }
+        if (length < maxLineLength){
+            if (length == line.length){
+                byte[] bigger = new byte[Math.min(line.length * 2, maxLineLength)];
+                System.arraycopy(line, 0, bigger, 0, length);
+                line = bigger;
+            }
+            line[length++] = b;
+        }
+        return false;
+    }
+
+    private String take(){
+        int start = 0;
+        int end = length;
+        while (start < end && (line[start] & 0xFF) <= ' '){
+            start++;
+        }
+        while (end > start && (line[end - 1] & 0xFF) <= ' '){
+            end--;
+        }
+        length = 0;
+        return new String(line, start, end - start, StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,275 @@
+package mclamud;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Log is the server's event log. Game threads put an event into a fixed
+ * ring and return; one writer thread takes events out, formats them and
+ * writes them, so no game thread ever waits on the console or a file. The
+ * ring takes no locks: each slot carries a sequence number saying whether
+ * it is free to fill or ready to write, and producers claim slots with a
+ * compare-and-set. When the ring is full the event is dropped and counted
+ * instead of making the caller wait, and one in every SAMPLE_EVERY dropped
+ * events is kept to be written with the count once there is room.
+ *
+ * Each event is a message followed by name and value pairs, written one
+ * per line in logfmt:
+ *
+ *   2026-10-17T09:30:00.123Z INFO "Player connected" ip=/127.0.0.1 port=51234
+ */
+public class Log {
+    public enum Level {INFO, WARN, ERROR}
+
+    private final static int CAPACITY = 8192; // a power of two
+    private final static int MASK = CAPACITY - 1;
+    private final static int SAMPLE_EVERY = 100;
+
+    private static class Event {
+        final long time;
+        final Level level;
+        final String message;
+        final Object[] fields;
+
+        Event(Level level, String message, Object[] fields){
+            this(System.currentTimeMillis(), level, message, fields);
+        }
+
+        Event(long time, Level level, String message, Object[] fields){
+            this.time = time;
+            this.level = level;
+            this.message = message;
+            this.fields = fields;
+        }
+    }
+
+    // Slot i may be filled for ticket t when sequence[i] == t, and written
+    // when sequence[i] == t + 1
+    private final static Event[] RING = new Event[CAPACITY];
+    private final static AtomicLongArray SEQUENCE = new AtomicLongArray(CAPACITY);
+    private final static AtomicLong TAIL = new AtomicLong();
+    private static long head = 0; // writer thread only
+    private static volatile long writtenTo = 0; // head, for other threads
+
+    private final static LongAdder DROPPED = new LongAdder();
+    private final static AtomicReference<Event> DROP_SAMPLE = new AtomicReference<>();
+    private final static AtomicReference<Path> REOPEN = new AtomicReference<>();
+    private static long droppedReported = 0; // writer thread only
+
+    static {
+        for (int i = 0; i < CAPACITY; i++){
+            SEQUENCE.set(i, i);
+        }
+        Thread t = new Thread(Log::drain, "log-writer");
+        t.setDaemon(true);
+        t.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::flushOnExit, "log-flush"));
+    }
+
+    private Log(){}
+
+    public static void info(String message, Object... fields){
+        log(Level.INFO, message, fields);
+    }
+
+    public static void warn(String message, Object... fields){
+        log(Level.WARN, message, fields);
+    }
+
+    public static void error(String message, Object... fields){
+        log(Level.ERROR, message, fields);
+    }
+
+    /************************************************************************
+     * Queues an event for the writer thread. Never blocks.
+     * @param level How serious the event is
+     * @param message What happened, fixed text so lines can be grepped
+     * @param fields Alternating field names and values
+     * @return boolean - true if the event was queued, false if the ring was
+     * full and it was dropped.
+     ************************************************************************/
+    public static boolean log(Level level, String message, Object... fields){
+        Event e = new Event(level, message, fields);
+        long ticket = TAIL.get();
+        while (true){
+            int slot = (int) ticket & MASK;
+            long seq = SEQUENCE.get(slot);
+            if (seq == ticket){
+                if (TAIL.compareAndSet(ticket, ticket + 1)){
+                    RING[slot] = e;
+                    SEQUENCE.set(slot, ticket + 1); // publishes the event
+                    return true;
+                }
+                ticket = TAIL.get();
+            } else if (seq < ticket){
+                DROPPED.increment();
+                if (DROPPED.sum() % SAMPLE_EVERY == 1){
+                    DROP_SAMPLE.set(e);
+                }
+                return false;
+            } else {
+                ticket = TAIL.get(); // another producer got there first
+            }
+        }
+    }
+
+    /************************************************************************
+     * Sends the log to a file instead of standard output, from the next
+     * event on. The file is appended to.
+     * @param path Log file
+     ************************************************************************/
+    public static void to(Path path){
+        REOPEN.set(path);
+    }
+
+    public static long dropped(){
+        return DROPPED.sum();
+    }
+
+    /************************************************************************
+     * Counts events queued but not yet written.
+     * @return long - roughly how full the ring is.
+     ************************************************************************/
+    public static long queued(){
+        return Math.max(0, TAIL.get() - writtenTo);
+    }
+
+    // The writer thread: takes whatever is ready, writes it in one go and
+    // sleeps a little when there is nothing to do
+    private static void drain(){
+        Writer out = new OutputStreamWriter(new FileOutputStream(FileDescriptor.out), StandardCharsets.UTF_8);
+        StringBuilder line = new StringBuilder(256);
+        int idle = 0;
+        while (true){
+            Path reopen = REOPEN.getAndSet(null);
+            if (reopen != null){
+                out = reopen(out, reopen);
+            }
+            int written = writeReady(out, line);
+            if (written > 0){
+                idle = 0;
+                flush(out);
+            } else if (idle < 100){
+                idle++;
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(5000000L);
+            }
+        }
+    }
+
+    private static int writeReady(Writer out, StringBuilder line){
+        int written = 0;
+        while (true){
+            int slot = (int) head & MASK;
+            if (SEQUENCE.get(slot) != head + 1){
+                break;
+            }
+            Event e = RING[slot];
+            RING[slot] = null;
+            SEQUENCE.set(slot, head + CAPACITY); // free for the next lap
+            head++;
+            write(out, line, e);
+            written++;
+        }
+        writtenTo = head;
+        long dropped = DROPPED.sum();
+        if (dropped != droppedReported){
+            Event sample = DROP_SAMPLE.getAndSet(null);
+            write(out, line, new Event(Level.WARN, "Log events dropped", new Object[]{
+                "count", dropped - droppedReported, "total", dropped}));
+            if (sample != null){
+                Object[] fields = Arrays.copyOf(sample.fields, sample.fields.length + 2);
+                fields[fields.length - 2] = "sampled";
+                fields[fields.length - 1] = true;
+                write(out, line, new Event(sample.time, sample.level, sample.message, fields));
+            }
+            droppedReported = dropped;
+            written++;
+        }
+        return written;
+    }
+
+    private static void write(Writer out, StringBuilder line, Event e){
+        line.setLength(0);
+        line.append(Instant.ofEpochMilli(e.time)).append(' ').append(e.level).append(' ');
+        quote(line, e.message);
+        for (int i = 0; i + 1 < e.fields.length; i += 2){
+            line.append(' ').append(e.fields[i]).append('=');
+            quote(line, String.valueOf(e.fields[i + 1]));
+        }
+        line.append(System.lineSeparator());
+        try {
+            out.append(line);
+        } catch (IOException ex){
+            // Nowhere left to report it
+        }
+    }
+
+    // Values with spaces, quotes or equals signs are quoted
+    private static void quote(StringBuilder line, String value){
+        boolean plain = !value.isEmpty();
+        for (int i = 0; i < value.length() && plain; i++){
+            char c = value.charAt(i);
+            plain = c > ' ' && c != '"' && c != '=';
+        }
+        if (plain){
+            line.append(value);
+        } else {
+            line.append('"');
+            for (int i = 0; i < value.length(); i++){
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\'){
+                    line.append('\\');
+                }
+                line.append(c < ' ' ? ' ' : c);
+            }
+            line.append('"');
+        }
+    }
+
+    private static Writer reopen(Writer old, Path path){
+        try {
+            OutputStream file = Files.newOutputStream(path, StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND);
+            flush(old);
+            return new OutputStreamWriter(file, StandardCharsets.UTF_8);
+        } catch (IOException ex){
+            write(old, new StringBuilder(), new Event(Level.ERROR, "An error occurred opening the log file",
+                new Object[]{"path", path, "error", ex.getMessage()}));
+            return old;
+        }
+    }
+
+    private static void flush(Writer out){
+        try {
+            out.flush();
+        } catch (IOException ex){
+            // Nowhere left to report it
+        }
+    }
+
+    // Gives the writer thread a moment to empty the ring before the JVM
+    // goes away
+    private static void flushOnExit(){
+        long deadline = System.nanoTime() + 500000000L;
+        while (writtenTo < TAIL.get() && System.nanoTime() < deadline){
+            LockSupport.parkNanos(1000000L);
+        }
+    }
+}
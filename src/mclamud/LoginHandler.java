@@ -0,0 +1,289 @@
+package mclamud;
+
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * LoginHandler walks a connection through the player name and password
+ * prompts one line at a time. Blocking sessions feed it from their line
+ * decoder and the NIO front end feeds it from its line buffer, so both share
+ * the same dialogue.
+ *
+ * Passwords are checked and hashed by Auth on its own pool. handleLine then
+ * answers WAITING, and once pending() completes the session calls finish
+ * from its own thread to carry on. Lines typed in the meantime are ignored.
+ */
+public class LoginHandler {
+    public enum Result {CONTINUE, SUCCESS, FAILED, WAITING}
+
+    private enum State {
+        NAME, PASSWORD, NEW_PASSWORD,               // free text prompts
+        RETRY_NAME, RETRY_PASSWORD, USE_NAME,       // yes or no prompts
+        RETRY_NEW_PASSWORD, NEW_NAME,
+        CHECKING, HASHING                           // waiting on Auth
+    }
+
+    private final static String DEFAULT_PROMPT = "Do you want to try again?";
+    private final static String NEW_NAME_PROMPT = "Would you like to enter a new player name?";
+    private final static String PASSWORD_REQUIREMENTS = "A valid password is at least eight characters long, " +
+        "contains at least one UPPERCASE letter, one lowercase letter, and one number.";
+
+    private final Player player;
+    private State state = State.NAME;
+    private String question = DEFAULT_PROMPT;
+    private String playerName = null;
+    private CompletableFuture<?> pending = null;
+    private Player record = null;   // the stored player, while CHECKING
+    private CompletableFuture<String> rehash = null; // from admit until admitted
+    private String attempt = null;  // the password typed, while CHECKING
+
+    public LoginHandler(Player player){
+        this.player = player;
+    }
+
+    /************************************************************************
+     * Sends the first prompt of the login dialogue.
+     * @param out PrintWriter of the connecting player
+     ************************************************************************/
+    public void start(PrintWriter out){
+        rehash = null; // a refused login's upgrade is not saved
+        promptName(out);
+    }
+
+    /************************************************************************
+     * Consumes one line of input and sends the next prompt.
+     * @param line A line entered by the connecting player
+     * @param out PrintWriter of the connecting player
+     * @return Result - SUCCESS once the player is logged in, FAILED if they
+     * gave up, WAITING when a password has gone to Auth, CONTINUE while more
+     * input is needed.
+     ************************************************************************/
+    public Result handleLine(String line, PrintWriter out){
+        Result outcome = Result.CONTINUE;
+        switch(state){
+            case NAME:
+                playerName = line.trim();
+                if (World.isValidPlayername(playerName)){
+                    if (World.doesPlayerExist(playerName)){
+                        // Read the record while the player types
+                        World.prefetchPlayer(playerName.toLowerCase());
+                        promptPassword(out);
+                    } else {
+                        out.println("The player name " + playerName + " does not exist.");
+                        ask(out, State.USE_NAME, "Would you like to use the name " + playerName + "?");
+                    }
+                } else {
+                    out.println("The player name " + playerName + " was not valid.");
+                    out.println("Your player name must be at least three characters " +
+                        "and only use letters, numbers, and the underscore.");
+                    ask(out, State.RETRY_NAME, DEFAULT_PROMPT);
+                }
+                break;
+            case PASSWORD:
+                if (!Auth.allow(address())){
+                    out.println("Too many login attempts. Please wait a minute.");
+                    ask(out, State.RETRY_PASSWORD, DEFAULT_PROMPT);
+                    break;
+                }
+                record = World.loadPlayer(playerName.toLowerCase());
+                if (record == null){
+                    out.println("The player name " + playerName + " does not exist.");
+                    ask(out, State.RETRY_NAME, DEFAULT_PROMPT);
+                    break;
+                }
+                attempt = line;
+                outcome = await(out, State.CHECKING, State.RETRY_PASSWORD,
+                    () -> Auth.verify(line, record.password));
+                break;
+            case NEW_PASSWORD:
+                if (World.isValidPassword(line)){
+                    outcome = await(out, State.HASHING, State.RETRY_NEW_PASSWORD,
+                        () -> Auth.hash(line));
+                } else {
+                    out.println("That password did not meet requirements.");
+                    ask(out, State.RETRY_NEW_PASSWORD, DEFAULT_PROMPT);
+                }
+                break;
+            case CHECKING:
+            case HASHING:
+                break;
+            default:
+                String choice = line.trim().toLowerCase();
+                if (choice.equals("yes") || choice.equals("y")){
+                    outcome = answerYes(out);
+                } else if (choice.equals("no") || choice.equals("n")){
+                    outcome = answerNo(out);
+                } else {
+                    ask(out, state, question);
+                }
+        }
+        return outcome;
+    }
+
+    /************************************************************************
+     * Returns what the session is waiting on after handleLine answered
+     * WAITING.
+     * @return CompletableFuture that completes when finish may be called
+     ************************************************************************/
+    public CompletableFuture<?> pending(){
+        return pending;
+    }
+
+    /************************************************************************
+     * Acts on the outcome of a password check or hash once pending() has
+     * completed. Call from the thread that feeds this handler its lines.
+     * @param out PrintWriter of the connecting player
+     * @return Result - SUCCESS if the player is now logged in, otherwise
+     * CONTINUE with the next prompt sent.
+     ************************************************************************/
+    public Result finish(PrintWriter out){
+        Result outcome = Result.CONTINUE;
+        try {
+            if (state == State.CHECKING){
+                if ((Boolean) pending.join()){
+                    admit(record, attempt);
+                    outcome = Result.SUCCESS;
+                } else {
+                    out.println("The password was not correct.");
+                    ask(out, State.RETRY_PASSWORD, DEFAULT_PROMPT);
+                }
+            } else if (state == State.HASHING){
+                player.name = playerName;
+                player.password = (String) pending.join();
+                PlayerSaver.save(player);
+                outcome = Result.SUCCESS;
+            }
+        } catch (CompletionException ex){
+            Log.error("An error occurred checking a password", "player", playerName, "error", ex.getCause());
+            out.println("Your password could not be checked.");
+            ask(out, state == State.CHECKING ? State.RETRY_PASSWORD : State.RETRY_NEW_PASSWORD,
+                DEFAULT_PROMPT);
+        } finally {
+            pending = null;
+            record = null;
+            attempt = null;
+        }
+        return outcome;
+    }
+
+    // Hands work to Auth, or says so and offers a retry if Auth is full
+    private Result await(PrintWriter out, State waiting, State retry,
+            Supplier<CompletableFuture<?>> work){
+        try {
+            pending = work.get();
+            state = waiting;
+            return Result.WAITING;
+        } catch (RejectedExecutionException ex){
+            out.println("The server is busy letting other players in.");
+            ask(out, retry, DEFAULT_PROMPT);
+            return Result.CONTINUE;
+        }
+    }
+
+    // Copies the stored player into the session's player and, if the
+    // stored hash is an old kind, replaces it in the background
+    private void admit(Player x, String password){
+        player.name = playerName;
+        player.password = x.password;
+        player.description = x.description;
+        player.inventory.addAll(x.inventory);
+        if (World.areaExists(x.location)){
+            player.location = x.location;
+        }
+        if (Passwords.needsRehash(x.password)){
+            try {
+                rehash = Auth.hash(password);
+            } catch (RejectedExecutionException ex){
+                // Busy; it will be upgraded at a later login
+            }
+        }
+    }
+
+    /************************************************************************
+     * Saves the stronger hash started at login, if there is one. Call once
+     * the player is in the world, so the hash can be checked against who
+     * the session then is.
+     ************************************************************************/
+    public void admitted(){
+        CompletableFuture<String> pending = rehash;
+        rehash = null;
+        if (pending != null){
+            String name = player.name;
+            Player session = player;
+            pending.thenAccept(h -> upgrade(session, name, h));
+        }
+    }
+
+    // Stores a rehashed password, but only if the session is still in the
+    // world as the player whose password it is. If the session has left or
+    // become someone else since, the hash is dropped.
+    private static void upgrade(Player session, String name, String hash){
+        if (session.name.equals(name) && PlayerRegistry.find(name) == session){
+            session.password = hash;
+            PlayerSaver.markDirty(session);
+        }
+    }
+
+    private InetAddress address(){
+        return player.socket != null ? player.socket.getInetAddress() : null;
+    }
+
+    private Result answerYes(PrintWriter out){
+        switch(state){
+            case RETRY_PASSWORD:
+                promptPassword(out);
+                break;
+            case USE_NAME:
+            case RETRY_NEW_PASSWORD:
+                promptNewPassword(out);
+                break;
+            default: // RETRY_NAME, NEW_NAME
+                promptName(out);
+        }
+        return Result.CONTINUE;
+    }
+
+    private Result answerNo(PrintWriter out){
+        Result outcome = Result.FAILED;
+        switch(state){
+            case USE_NAME:
+            case RETRY_NEW_PASSWORD:
+                ask(out, State.NEW_NAME, NEW_NAME_PROMPT);
+                outcome = Result.CONTINUE;
+                break;
+            default: // RETRY_NAME, RETRY_PASSWORD, NEW_NAME
+                break;
+        }
+        return outcome;
+    }
+
+    private void promptName(PrintWriter out){
+        state = State.NAME;
+        out.print("Enter your existing or desired player name: ");
+        out.flush();
+    }
+
+    private void promptPassword(PrintWriter out){
+        state = State.PASSWORD;
+        out.print("Enter your password: ");
+        out.flush();
+    }
+
+    private void promptNewPassword(PrintWriter out){
+        state = State.NEW_PASSWORD;
+        out.println(PASSWORD_REQUIREMENTS);
+        out.print("Enter a password: ");
+        out.flush();
+    }
+
+    private void ask(PrintWriter out, State next, String prompt){
+        state = next;
+        question = prompt;
+        out.print(prompt + " Yes or no? ");
+        out.flush();
+    }
+}
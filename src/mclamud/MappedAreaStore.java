@@ -0,0 +1,145 @@
+package mclamud;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * MappedAreaStore serves areas out of a compiled area file (see
+ * AreaCompiler) mapped read-only into memory. Finding an area is a binary
+ * search of the index, and an area's title and description are decoded from
+ * the mapping each time they are shown, so the static text of a large world
+ * lives in the page cache instead of the Java heap.
+ *
+ * File layout, all ints big-endian:
+ *   header  magic, version, area count
+ *   index   (area id, record offset) for every area, sorted by id
+ *   record  six exits, then id, title and description as a length followed
+ *           by UTF-8 bytes, then the number of different items and each
+ *           item's name the same way followed by how many there are
+ */
+public class MappedAreaStore implements AreaStore {
+    public final static int MAGIC = 0x4D554441; // "MUDA"
+    public final static int VERSION = 2;
+    final static int HEADER_BYTES = 12;
+    final static int INDEX_ENTRY_BYTES = 8;
+
+    private final ByteBuffer map;
+    private final int count;
+
+    private MappedAreaStore(ByteBuffer map){
+        this.map = map;
+        this.count = map.getInt(8);
+    }
+
+    /************************************************************************
+     * Maps a compiled area file.
+     * @param path File written by AreaCompiler
+     * @return MappedAreaStore over the file
+     * @throws IOException if the file cannot be read or is not an area file
+     ************************************************************************/
+    public static MappedAreaStore open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)){
+            // The mapping stays valid after the channel is closed
+            ByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (map.limit() < HEADER_BYTES || map.getInt(0) != MAGIC){
+                throw new IOException(path + " is not a compiled area file.");
+            }
+            if (map.getInt(4) != VERSION){
+                throw new IOException(path + " is area file version " + map.getInt(4) +
+                    ", expected " + VERSION + ".");
+            }
+            return new MappedAreaStore(map);
+        }
+    }
+
+    public int size(){
+        return count;
+    }
+
+    /************************************************************************
+     * Lists every area in the file.
+     * @return int[] of area IDs in ascending order
+     ************************************************************************/
+    @Override
+    public int[] ids(){
+        int[] ids = new int[count];
+        for (int i = 0; i < count; i++){
+            ids[i] = map.getInt(HEADER_BYTES + i * INDEX_ENTRY_BYTES);
+        }
+        return ids;
+    }
+
+    /************************************************************************
+     * Builds an Area from its record. Exits and items are copied onto the
+     * heap since players change them; title and description are not.
+     * @param areaId ID of the area
+     * @return Area object, or null if the file has no such area
+     ************************************************************************/
+    @Override
+    public Area load(int areaId){
+        Area a = null;
+        int record = find(areaId);
+        if (record >= 0){
+            a = new Area();
+            for (int i = 0; i < a.exits.length; i++){
+                a.exits[i] = map.getInt(record + i * 4);
+            }
+            int pos = record + a.exits.length * 4;
+            a.ID = string(pos);
+            pos = skip(skip(skip(pos)));
+            int items = map.getInt(pos);
+            pos += 4;
+            for (int i = 0; i < items; i++){
+                int id = Items.id(string(pos));
+                pos = skip(pos);
+                a.items.add(id, map.getInt(pos));
+                pos += 4;
+            }
+            a.store = this;
+            a.record = record;
+        }
+        return a;
+    }
+
+    String title(int record){
+        return string(skip(record + 24));
+    }
+
+    String description(int record){
+        return string(skip(skip(record + 24)));
+    }
+
+    // Absolute gets only, so any number of threads can read the one buffer
+    private int find(int areaId){
+        int low = 0;
+        int high = count - 1;
+        while (low <= high){
+            int mid = (low + high) >>> 1;
+            int id = map.getInt(HEADER_BYTES + mid * INDEX_ENTRY_BYTES);
+            if (id < areaId){
+                low = mid + 1;
+            } else if (id > areaId){
+                high = mid - 1;
+            } else {
+                return map.getInt(HEADER_BYTES + mid * INDEX_ENTRY_BYTES + 4);
+            }
+        }
+        return -1;
+    }
+
+    private int skip(int pos){
+        return pos + 4 + map.getInt(pos);
+    }
+
+    private String string(int pos){
+        byte[] bytes = new byte[map.getInt(pos)];
+        ByteBuffer view = map.duplicate();
+        view.position(pos + 4);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
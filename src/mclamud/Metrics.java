@@ -0,0 +1,281 @@
+package mclamud;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Metrics collects what the server is doing: commands run and how long
+ * they took (kept by CommandRegistry), time spent waiting for and holding
+ * area locks, tick lengths, output per player, sessions, and how often
+ * areas and players were found in memory. The report is plain text, one
+ * metric per line in the Prometheus text format, and is served through
+ * JMX as mclamud:type=Metrics and, when asked for, on a local admin port:
+ *
+ *   nc localhost 6667      or      curl http://localhost:6667/
+ */
+public class Metrics {
+    public final static Histogram LOCK_WAIT = new Histogram();
+    public final static Histogram LOCK_HOLD = new Histogram();
+    public final static Histogram TICKS = new Histogram();
+    public final static LongAdder OUTBOUND_BYTES = new LongAdder();
+    public final static LongAdder OUTBOUND_FLUSHES = new LongAdder();
+
+    private final static AtomicInteger SESSIONS = new AtomicInteger();
+    private final static LongAdder AREA_HITS = new LongAdder();
+    private final static LongAdder AREA_MISSES = new LongAdder();
+    private final static long STARTED = System.nanoTime();
+
+    private Metrics(){}
+
+    public static void sessionOpened(){
+        SESSIONS.incrementAndGet();
+    }
+
+    public static void sessionClosed(){
+        SESSIONS.decrementAndGet();
+    }
+
+    /************************************************************************
+     * Counts an area lookup.
+     * @param hit true if the area was already in memory
+     ************************************************************************/
+    public static void areaLookup(boolean hit){
+        (hit ? AREA_HITS : AREA_MISSES).increment();
+    }
+
+    /************************************************************************
+     * Registers the JMX bean and, if a port is given, starts the admin
+     * port on the loopback address.
+     * @param adminPort Port for the plain text report, 0 for none
+     ************************************************************************/
+    public static void start(int adminPort){
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new Bean(),
+                new ObjectName("mclamud:type=Metrics"));
+        } catch (JMException ex){
+            Log.error("An error occurred registering metrics with JMX", "error", ex.getMessage());
+        }
+        if (adminPort > 0){
+            try {
+                ServerSocket server = new ServerSocket(adminPort, 8, InetAddress.getLoopbackAddress());
+                Thread t = new Thread(() -> serve(server), "admin-port");
+                t.setDaemon(true);
+                t.start();
+                Log.info("Metrics on localhost", "port", adminPort);
+            } catch (IOException ex){
+                Log.error("An error occurred opening the admin port", "port", adminPort, "error", ex.getMessage());
+            }
+        }
+    }
+
+    /************************************************************************
+     * Renders every metric.
+     * @return String of metric lines
+     ************************************************************************/
+    public static String report(){
+        StringBuilder b = new StringBuilder();
+        line(b, "mud_uptime_seconds", (System.nanoTime() - STARTED) / 1000000000L);
+        line(b, "mud_sessions_active", SESSIONS.get());
+        line(b, "mud_players_online", PlayerRegistry.size());
+
+        for (CommandRegistry.Entry e : CommandRegistry.entries()){
+            String verb = "verb=\"" + e.name + "\"";
+            line(b, "mud_commands_total{" + verb + "}", e.invocations());
+            quantiles(b, "mud_command_latency_us", verb, e.latency());
+        }
+        line(b, "mud_commands_unknown_total", CommandRegistry.unknown());
+        line(b, "mud_interest_deliveries_total", Interest.delivered());
+        line(b, "mud_log_queued", Log.queued());
+        line(b, "mud_log_dropped_total", Log.dropped());
+
+        line(b, "mud_lock_acquisitions_total", LOCK_WAIT.count());
+        line(b, "mud_lock_wait_seconds_total", LOCK_WAIT.sum() / 1e9);
+        quantiles(b, "mud_lock_wait_us", "", LOCK_WAIT);
+        line(b, "mud_lock_hold_seconds_total", LOCK_HOLD.sum() / 1e9);
+        quantiles(b, "mud_lock_hold_us", "", LOCK_HOLD);
+        if (WorldTick.isRunning()){
+            line(b, "mud_ticks_total", TICKS.count());
+            quantiles(b, "mud_tick_us", "", TICKS);
+            line(b, "mud_tick_pending", WorldTick.pending());
+        }
+
+        long hits = AREA_HITS.sum();
+        long misses = AREA_MISSES.sum();
+        line(b, "mud_area_cache_hits_total", hits);
+        line(b, "mud_area_cache_misses_total", misses);
+        line(b, "mud_area_cache_hit_ratio", ratio(hits, misses));
+        line(b, "mud_areas_loaded", World.areaMap.size());
+        if (World.playerStore() instanceof PlayerCache){
+            PlayerCache cache = (PlayerCache) World.playerStore();
+            line(b, "mud_player_cache_hits_total", cache.hits());
+            line(b, "mud_player_cache_misses_total", cache.misses());
+            line(b, "mud_player_cache_evictions_total", cache.evictions());
+            line(b, "mud_player_cache_bytes", cache.bytes());
+        }
+        line(b, "mud_auth_queue_depth", Auth.queued());
+
+        long data = 0;
+        long wire = 0;
+        int queued = 0;
+        StringBuilder players = new StringBuilder();
+        for (Player p : PlayerRegistry.all()){
+            String who = "player=\"" + p.name + "\"";
+            queued += p.outbound.size();
+            line(players, "mud_player_outbound_bytes_total{" + who + "}", p.outbound.bytes());
+            line(players, "mud_player_outbound_flushes_total{" + who + "}", p.outbound.flushes());
+            line(players, "mud_player_outbound_queue_depth{" + who + "}", p.outbound.size());
+            if (p.telnet != null){
+                long[] traffic = p.telnet.traffic();
+                data += traffic[0];
+                wire += traffic[1];
+            }
+        }
+        line(b, "mud_outbound_bytes_total", OUTBOUND_BYTES.sum());
+        line(b, "mud_outbound_flushes_total", OUTBOUND_FLUSHES.sum());
+        line(b, "mud_outbound_queue_depth", queued);
+        // Players online now; MCCP2 makes wire smaller than data
+        line(b, "mud_online_telnet_data_bytes", data);
+        line(b, "mud_online_telnet_wire_bytes", wire);
+        return b.append(players).toString();
+    }
+
+    private static void quantiles(StringBuilder b, String name, String labels, Histogram h){
+        String prefix = name + "{" + labels + (labels.isEmpty() ? "" : ",");
+        line(b, prefix + "quantile=\"0.5\"}", h.percentile(50) / 1000);
+        line(b, prefix + "quantile=\"0.99\"}", h.percentile(99) / 1000);
+        line(b, prefix + "quantile=\"1\"}", h.max() / 1000);
+    }
+
+    private static void line(StringBuilder b, String name, long value){
+        b.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void line(StringBuilder b, String name, double value){
+        b.append(name).append(' ').append(String.format(Locale.ROOT, "%.6f", value)).append('\n');
+    }
+
+    private static double ratio(long hits, long misses){
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+    // One connection at a time; the report is small and this is for admins
+    private static void serve(ServerSocket server){
+        while (!server.isClosed()){
+            try (Socket s = server.accept()){
+                s.setSoTimeout(250);
+                boolean http = false;
+                InputStream in = s.getInputStream();
+                try {
+                    byte[] start = new byte[4];
+                    int n = in.read(start);
+                    http = n == 4 && new String(start, StandardCharsets.ISO_8859_1).equals("GET ");
+                } catch (SocketTimeoutException ex){
+                    // nc sends nothing; plain text it is
+                }
+                byte[] body = report().getBytes(StandardCharsets.UTF_8);
+                OutputStream out = s.getOutputStream();
+                if (http){
+                    out.write(("HTTP/1.0 200 OK\r\nContent-Type: text/plain; version=0.0.4\r\n" +
+                        "Content-Length: " + body.length + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+                }
+                out.write(body);
+                out.flush();
+            } catch (IOException ex){
+                Log.warn("An error occurred on the admin port", "error", ex.getMessage());
+            }
+        }
+    }
+
+    private static class Bean implements MetricsMXBean {
+        @Override
+        public int getSessionsActive(){
+            return SESSIONS.get();
+        }
+
+        @Override
+        public int getPlayersOnline(){
+            return PlayerRegistry.size();
+        }
+
+        @Override
+        public long getCommandsRun(){
+            long total = 0;
+            for (CommandRegistry.Entry e : CommandRegistry.entries()){
+                total += e.invocations();
+            }
+            return total;
+        }
+
+        @Override
+        public Map<String, Long> getCommandCounts(){
+            Map<String, Long> counts = new LinkedHashMap<>();
+            for (CommandRegistry.Entry e : CommandRegistry.entries()){
+                counts.put(e.name, e.invocations());
+            }
+            return counts;
+        }
+
+        @Override
+        public long getLockWaitP99Micros(){
+            return LOCK_WAIT.percentile(99) / 1000;
+        }
+
+        @Override
+        public long getLockHoldP99Micros(){
+            return LOCK_HOLD.percentile(99) / 1000;
+        }
+
+        @Override
+        public long getTickP99Micros(){
+            return TICKS.percentile(99) / 1000;
+        }
+
+        @Override
+        public double getAreaCacheHitRatio(){
+            return ratio(AREA_HITS.sum(), AREA_MISSES.sum());
+        }
+
+        @Override
+        public long getOutboundBytes(){
+            return OUTBOUND_BYTES.sum();
+        }
+
+        @Override
+        public long getOutboundFlushes(){
+            return OUTBOUND_FLUSHES.sum();
+        }
+
+        @Override
+        public int getOutboundQueueDepth(){
+            int total = 0;
+            for (Player p : PlayerRegistry.all()){
+                total += p.outbound.size();
+            }
+            return total;
+        }
+
+        @Override
+        public int getAuthQueueDepth(){
+            return Auth.queued();
+        }
+
+        @Override
+        public String report(){
+            return Metrics.report();
+        }
+    }
+}
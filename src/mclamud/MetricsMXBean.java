@@ -0,0 +1,28 @@
+package mclamud;
+
+import java.util.Map;
+
+/**
+ * MetricsMXBean is what Metrics shows through JMX, as mclamud:type=Metrics.
+ * Times are in microseconds.
+ */
+public interface MetricsMXBean {
+    int getSessionsActive();
+    int getPlayersOnline();
+    long getCommandsRun();
+    Map<String, Long> getCommandCounts();
+    long getLockWaitP99Micros();
+    long getLockHoldP99Micros();
+    long getTickP99Micros();
+    double getAreaCacheHitRatio();
+    long getOutboundBytes();
+    long getOutboundFlushes();
+    int getOutboundQueueDepth();
+    int getAuthQueueDepth();
+
+    /************************************************************************
+     * The full report, as served on the admin port.
+     * @return String of metric lines
+     ************************************************************************/
+    String report();
+}
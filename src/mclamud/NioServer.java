@@ -0,0 +1,114 @@
+package mclamud;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * NioServer is the non-blocking front end. One selector thread accepts
+ * connections and moves bytes, and a small fixed pool of workers runs the
+ * complete lines through the same login and command code that
+ * PlayerThread uses. Idle sessions cost a buffer, not a thread.
+ */
+public class NioServer implements Runnable {
+    private final Selector selector;
+    private final ServerSocketChannel ssock;
+    private final ExecutorService workers;
+    private final Queue<NioSession> writeRequests = new ConcurrentLinkedQueue<>();
+
+    public NioServer(int port, int workerThreads) throws IOException {
+        this.selector = Selector.open();
+        this.ssock = ServerSocketChannel.open();
+        this.ssock.bind(new InetSocketAddress(port));
+        this.ssock.configureBlocking(false);
+        this.ssock.register(selector, SelectionKey.OP_ACCEPT);
+        this.workers = Executors.newFixedThreadPool(workerThreads);
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (selector.isOpen()){
+                selector.select();
+                NioSession s;
+                while ((s = writeRequests.poll()) != null){
+                    s.enableWrite();
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()){
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()){
+                        continue;
+                    }
+                    if (key.isAcceptable()){
+                        accept();
+                    } else {
+                        NioSession session = (NioSession) key.attachment();
+                        if (key.isReadable()){
+                            session.onReadable();
+                        }
+                        if (key.isValid() && key.isWritable()){
+                            session.onWritable();
+                        }
+                    }
+                }
+            }
+        } catch (IOException ex){
+            Log.error("The NIO selector stopped", "error", ex.getMessage());
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = ssock.accept();
+        if (channel != null){
+            try {
+                channel.configureBlocking(false);
+                // Outbound already batches, so Nagle would only hold replies
+                // back waiting on the client's delayed ACK
+                channel.socket().setTcpNoDelay(true);
+            } catch (IOException ex){
+                // A client that reset straight after connecting; only its
+                // connection is given up, the selector keeps accepting
+                Log.warn("Dropping a connection that failed to set up", "ip",
+                    channel.socket().getInetAddress(), "error", ex.getMessage());
+                try {
+                    channel.close();
+                } catch (IOException closing){
+                    // Already gone
+                }
+                return;
+            }
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            NioSession session = new NioSession(this, channel, key);
+            key.attach(session);
+            Log.info("Player connected", "ip", channel.socket().getInetAddress(),
+                "port", channel.socket().getPort());
+            session.open();
+        }
+    }
+
+    /************************************************************************
+     * Asks the selector thread to start watching a session for writability.
+     * Safe to call from any thread.
+     * @param session The session holding unsent output
+     ************************************************************************/
+    void requestWrite(NioSession session){
+        writeRequests.add(session);
+        selector.wakeup();
+    }
+
+    ExecutorService getWorkers(){
+        return workers;
+    }
+}
@@ -0,0 +1,200 @@
+package mclamud;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * NioSession holds the per-connection state for the NIO front end: a read
+ * buffer that is cut into lines, and a queue of unsent output. Complete
+ * lines run on the worker pool one at a time, in the order they arrived.
+ * Once more than OUTBOX_BYTES are waiting to be sent, the player's
+ * Outbound stops draining into the queue until the socket catches up, so
+ * a stalled client fills Outbound and meets the slow consumer policy.
+ */
+class NioSession {
+    private final static int READ_BUFFER_SIZE = 1024;
+    private final static String EOF = new String(); // compared by identity
+    private final static String RESUME = new String(); // a password check is done
+    // Unsent output past which Outbound stops draining into the outbox
+    final static int OUTBOX_BYTES = 65536;
+
+    private final NioServer server;
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    private final LineDecoder lines = new LineDecoder();
+
+    private final Queue<String> inbox = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private final Queue<ByteBuffer> outbox = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean writePending = new AtomicBoolean(false);
+    private final AtomicLong unsent = new AtomicLong(0); // bytes in outbox
+
+    private final PlayerThread session;
+    private final Telnet telnet;
+    private final PrintWriter out;
+    private boolean closed = false; // only touched by the worker draining the inbox
+
+    NioSession(NioServer server, SocketChannel channel, SelectionKey key){
+        this.server = server;
+        this.channel = channel;
+        this.key = key;
+        this.session = new PlayerThread(channel.socket());
+        this.session.resumeWith(() -> deliver(RESUME));
+        this.telnet = new Telnet(new ChannelOutput());
+        this.session.getPlayer().connect(telnet);
+        this.session.getPlayer().outbound.holdWhile(() -> unsent.get() > OUTBOX_BYTES);
+        this.out = new PrintWriter(this.session.getPlayer().outbound.writer());
+    }
+
+    /************************************************************************
+     * Sends the banner and first prompt. Only queues output, so it is safe
+     * to call from the selector thread.
+     ************************************************************************/
+    void open(){
+        try {
+            telnet.start();
+        } catch (IOException ex){
+            return; // closed already, the selector will see it
+        }
+        session.greet(out);
+    }
+
+    /************************************************************************
+     * Reads what the channel has and hands every complete line to the
+     * worker pool. Called by the selector thread.
+     ************************************************************************/
+    void onReadable(){
+        int count;
+        try {
+            count = channel.read(readBuffer);
+        } catch (IOException ex){
+            count = -1;
+        }
+        if (count < 0){
+            key.cancel();
+            deliver(EOF);
+            return;
+        }
+        try {
+            count = telnet.decode(readBuffer.array(), 0, readBuffer.position());
+        } catch (IOException ex){
+            count = 0; // a reply could not be sent; the connection is going away
+        }
+        lines.feed(readBuffer.array(), 0, count, line -> {
+            if (lines.allow()){
+                deliver(line);
+            } else {
+                session.throttle(lines);
+            }
+        });
+        readBuffer.clear();
+    }
+
+    /************************************************************************
+     * Writes queued output until the queue is empty or the socket is full.
+     * Called by the selector thread.
+     ************************************************************************/
+    void onWritable(){
+        try {
+            ByteBuffer b;
+            while ((b = outbox.peek()) != null){
+                channel.write(b);
+                if (b.hasRemaining()){
+                    return; // socket buffer is full, wait for the next OP_WRITE
+                }
+                outbox.poll();
+                unsent.addAndGet(-b.limit());
+            }
+            session.getPlayer().outbound.resume();
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            writePending.set(false);
+            if (!outbox.isEmpty() && writePending.compareAndSet(false, true)){
+                enableWrite();
+            }
+        } catch (IOException ex){
+            key.cancel();
+            deliver(EOF);
+        }
+    }
+
+    void enableWrite(){
+        if (key.isValid()){
+            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        }
+    }
+
+    private void deliver(String text){
+        inbox.add(text);
+        schedule();
+    }
+
+    private void schedule(){
+        if (scheduled.compareAndSet(false, true)){
+            server.getWorkers().execute(this::drain);
+        }
+    }
+
+    private void drain(){
+        String text;
+        while ((text = inbox.poll()) != null){
+            if (closed){
+                continue;
+            }
+            try {
+                if (text == EOF){ //Connection has been lost
+                    close(" crumbles into dust.");
+                } else if (text == RESUME){
+                    if (session.resumeLogin(out)){
+                        close(" has returned to reality.");
+                    }
+                } else if (session.handleLine(text, out)){ //Player has left world
+                    close(" has returned to reality.");
+                }
+            } catch (RuntimeException ex){
+                close(" crumbles into dust.");
+            }
+        }
+        scheduled.set(false);
+        if (!inbox.isEmpty()){
+            schedule();
+        }
+    }
+
+    private void close(String farewell){
+        closed = true;
+        session.endSession(farewell);
+    }
+
+    /**
+     * Output side of the session. Any thread may write to it; bytes are
+     * copied into the outbox and the selector thread sends them.
+     */
+    private class ChannelOutput extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (!channel.isOpen()){
+                throw new IOException("Connection closed.");
+            }
+            unsent.addAndGet(len);
+            outbox.add(ByteBuffer.wrap(Arrays.copyOfRange(b, off, off + len)));
+            if (writePending.compareAndSet(false, true)){
+                server.requestWrite(NioSession.this);
+            }
+        }
+    }
+}
@@ -0,0 +1,377 @@
+package mclamud;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Outbound is a player's bounded queue of text waiting to go out on the
+ * socket. World methods only enqueue, and a writer task drains the queue,
+ * so a stalled telnet client slows nobody down but itself. What happens
+ * when the queue is full is decided by the slow consumer policy. Writers
+ * come from a fixed pool, and a player whose socket write stays blocked
+ * for longer than writeTimeoutSeconds is disconnected whatever the policy,
+ * since that is the only way to get the writer back.
+ *
+ * Text is queued already encoded. A message for many players is encoded
+ * once with encode and the same byte array is queued for each of them with
+ * sendShared, so nothing may write to an array once it has been queued.
+ */
+public class Outbound {
+    public enum Policy {
+        DROP,       // discard the new message
+        COALESCE,   // discard the oldest messages and tell the player how many
+        DISCONNECT  // cut the player off
+    }
+
+    // Set from the command line in Server.main
+    public static int capacity = 256;
+    public static Policy policy = Policy.DROP;
+    // In tick mode output is held until WorldTick calls releaseDeferred
+    public static volatile boolean deferred = false;
+    private final static Queue<Outbound> WAITING = new ConcurrentLinkedQueue<>();
+    private final static byte[] NL = System.lineSeparator().getBytes(StandardCharsets.ISO_8859_1);
+    private final static int BATCH_BYTES = 8192;
+
+    // Writer pool size and how long one write may block before the player
+    // is cut off, set from the command line in Server.main. Each stalled
+    // client holds a writer in a blocking socket write, so the pool is
+    // fixed and a watchdog frees writers that stay stuck.
+    public static int writerThreads = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+    public static int writeTimeoutSeconds = 30;
+    private final static ReentrantLock LOCK = new ReentrantLock();
+    private static volatile ExecutorService writers = null;
+    private final static Set<Outbound> WRITING = ConcurrentHashMap.newKeySet();
+
+    private final Player player;
+    private final ArrayBlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(capacity);
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private final AtomicBoolean waiting = new AtomicBoolean(false);
+    private final AtomicInteger skipped = new AtomicInteger(0);
+    // Text written through writer() but not flushed yet, guarded by this
+    private final StringBuilder pending = new StringBuilder();
+    private volatile boolean closed = false;
+    // Only touched by drain, which never runs twice at once
+    private final byte[] batch = new byte[BATCH_BYTES];
+    private final Runnable drainTask = this::drain;
+    // Set by a connection that buffers output itself (NioSession): while it
+    // says it is full, drain leaves messages here so the queue fills and
+    // the slow consumer policy applies
+    private volatile BooleanSupplier full = () -> false;
+    // Written only by drain, read by Metrics
+    private volatile long bytes = 0;
+    private volatile long flushes = 0;
+    // When the write in progress started, 0 when not writing
+    private volatile long writeStarted = 0;
+
+    public Outbound(Player player){
+        this.player = player;
+    }
+
+    /************************************************************************
+     * Queues a line of text for the player.
+     * @param line Text without a line terminator
+     * @return boolean - true if the line was queued, false if it was not.
+     ************************************************************************/
+    public boolean println(String line){
+        return send(line + System.lineSeparator());
+    }
+
+    /************************************************************************
+     * Queues text for the player, applying the slow consumer policy when
+     * the queue is full. Anything already written through writer() goes
+     * first so the player sees their output in order.
+     * @param text Text to be sent as is
+     * @return boolean - true if the text was queued, false if it was not.
+     ************************************************************************/
+    public boolean send(String text){
+        synchronized (this){
+            pending.append(text);
+        }
+        return flushPending();
+    }
+
+    /************************************************************************
+     * Queues a message made by encode. The array is shared, not copied, so
+     * one message for a whole room or world is encoded only once.
+     * @param message Encoded message, never changed after this
+     * @return boolean - true if the message was queued, false if it was not.
+     ************************************************************************/
+    public boolean sendShared(byte[] message){
+        flushPending();
+        return enqueue(message);
+    }
+
+    /************************************************************************
+     * Encodes a line for sendShared, the same way the connection would.
+     * @param line Text without a line terminator
+     * @return byte[] - the line and a line terminator in ISO-8859-1.
+     ************************************************************************/
+    public static byte[] encode(String line){
+        byte[] text = line.getBytes(StandardCharsets.ISO_8859_1);
+        byte[] message = new byte[text.length + NL.length];
+        System.arraycopy(text, 0, message, 0, text.length);
+        System.arraycopy(NL, 0, message, text.length, NL.length);
+        return message;
+    }
+
+    private boolean flushPending(){
+        String text;
+        synchronized (this){
+            if (pending.length() == 0){
+                return !closed;
+            }
+            text = pending.toString();
+            pending.setLength(0);
+        }
+        return enqueue(text.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private boolean enqueue(byte[] text){
+        boolean outcome = !closed;
+        if (outcome && !queue.offer(text)){
+            switch (policy){
+                case COALESCE:
+                    while (!queue.offer(text)){
+                        if (queue.poll() != null){
+                            skipped.incrementAndGet();
+                        }
+                    }
+                    break;
+                case DISCONNECT:
+                    outcome = false;
+                    disconnect();
+                    break;
+                default: // DROP
+                    outcome = false;
+            }
+        }
+        if (outcome && deferred){
+            if (waiting.compareAndSet(false, true)){
+                WAITING.add(this);
+            }
+        } else if (outcome){
+            schedule();
+        }
+        return outcome;
+    }
+
+    /************************************************************************
+     * Returns a Writer that collects text until it is flushed and then
+     * queues it as one message. Sessions flush it at the end of each
+     * command.
+     * @return Writer feeding this queue
+     ************************************************************************/
+    public Writer writer(){
+        return new Writer(){
+            @Override
+            public void write(char[] cbuf, int off, int len){
+                synchronized (Outbound.this){
+                    pending.append(cbuf, off, len);
+                }
+            }
+
+            @Override
+            public void flush(){
+                flushPending();
+            }
+
+            @Override
+            public void close(){
+                flush();
+            }
+        };
+    }
+
+    /************************************************************************
+     * Holds output back while the connection has too much unsent. The
+     * connection calls resume once it has room again.
+     * @param full Tells whether the connection is full
+     ************************************************************************/
+    public void holdWhile(BooleanSupplier full){
+        this.full = full;
+    }
+
+    /************************************************************************
+     * Starts draining again after the connection had no room.
+     ************************************************************************/
+    public void resume(){
+        if (!queue.isEmpty() && !deferred){
+            schedule();
+        }
+    }
+
+    public int size(){
+        return queue.size();
+    }
+
+    // Bytes written to the connection so far, before telnet escaping
+    public long bytes(){
+        return bytes;
+    }
+
+    public long flushes(){
+        return flushes;
+    }
+
+    /************************************************************************
+     * Starts writing out every queue that received output while deferred.
+     * Called by WorldTick at the end of each tick.
+     ************************************************************************/
+    public static void releaseDeferred(){
+        Outbound o;
+        while ((o = WAITING.poll()) != null){
+            o.waiting.set(false);
+            o.schedule();
+        }
+    }
+
+    private void schedule(){
+        if (scheduled.compareAndSet(false, true)){
+            writers().execute(drainTask);
+        }
+    }
+
+    private void drain(){
+        if (full.getAsBoolean()){
+            scheduled.set(false);
+            // The connection may have emptied between the check and now
+            if (!full.getAsBoolean() && !queue.isEmpty()){
+                schedule();
+            }
+            return;
+        }
+        OutputStream out = player.stream;
+        byte[] message;
+        int length = 0;
+        writeStarted = System.nanoTime();
+        WRITING.add(this);
+        try {
+            while ((message = queue.poll()) != null){
+                int count = skipped.getAndSet(0);
+                if (count > 0){
+                    length = append(out, length, encode("[" + count + " messages skipped]"));
+                }
+                length = append(out, length, message);
+            }
+            out.write(batch, 0, length); // usually everything queued is one write
+            out.flush();
+            flushes++;
+            Metrics.OUTBOUND_FLUSHES.increment();
+        } catch (IOException ex){
+            closed = true; // the connection is gone, stop queueing for it
+            queue.clear();
+        } catch (RuntimeException ex){
+            // A broken stream wrapper is as good as a lost connection, so
+            // the session is ended the same way
+            Log.error("Writing to a player failed", "player", player.name, "error", ex);
+            disconnect();
+        } finally {
+            WRITING.remove(this);
+            writeStarted = 0;
+            // Always let go of the drain, or nothing is sent to this player
+            // again
+            scheduled.set(false);
+            if (!queue.isEmpty()){
+                schedule();
+            }
+        }
+    }
+
+    // Adds a message to the batch, writing the batch out first if it is full
+    private int append(OutputStream out, int length, byte[] message) throws IOException {
+        if (length + message.length > batch.length){
+            out.write(batch, 0, length);
+            length = 0;
+            if (message.length > batch.length){
+                out.write(message);
+                bytes += message.length;
+                Metrics.OUTBOUND_BYTES.add(message.length);
+                return 0;
+            }
+        }
+        System.arraycopy(message, 0, batch, length, message.length);
+        bytes += message.length;
+        Metrics.OUTBOUND_BYTES.add(message.length);
+        return length + message.length;
+    }
+
+    private static ExecutorService writers(){
+        ExecutorService w = writers;
+        if (w == null){
+            LOCK.lock();
+            try {
+                w = writers;
+                if (w == null){
+                    // Each Outbound has at most one drain queued, so the
+                    // task queue is bounded by the number of players
+                    w = Executors.newFixedThreadPool(writerThreads, r -> {
+                        Thread t = new Thread(r, "outbound-writer");
+                        t.setDaemon(true);
+                        return t;
+                    });
+                    if (writeTimeoutSeconds > 0){
+                        ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+                            Thread t = new Thread(r, "outbound-watchdog");
+                            t.setDaemon(true);
+                            return t;
+                        });
+                        watchdog.scheduleWithFixedDelay(Outbound::checkWrites, 1, 1, TimeUnit.SECONDS);
+                    }
+                    writers = w;
+                }
+            } finally {
+                LOCK.unlock();
+            }
+        }
+        return w;
+    }
+
+    // Cuts off every player whose write has been blocked too long. Closing
+    // the socket makes the write fail, which frees its writer thread.
+    private static void checkWrites(){
+        long limit = writeTimeoutSeconds * 1000000000L;
+        long now = System.nanoTime();
+        for (Outbound o : WRITING){
+            long started = o.writeStarted;
+            if (started != 0 && now - started > limit){
+                Log.warn("Write timed out, disconnecting", "player", o.player.name,
+                    "seconds", writeTimeoutSeconds);
+                o.closed = true;
+                o.queue.clear();
+                try {
+                    o.player.socket.close();
+                } catch (IOException ex){
+                    Log.warn("An IOException occurred disconnecting a player", "player", o.player.name,
+                        "error", ex.getMessage());
+                }
+            }
+        }
+    }
+
+    private void disconnect(){
+        closed = true;
+        queue.clear();
+        try {
+            // The session sees end of input and cleans up as if the player
+            // had dropped the connection.
+            player.socket.shutdownInput();
+        } catch (IOException ex){
+            Log.warn("An IOException occurred disconnecting a player", "player", player.name, "error", ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package mclamud;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.regex.Pattern;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * Passwords turns passwords into the salted PBKDF2 hashes kept in player
+ * records and checks passwords against them. A stored hash reads
+ *
+ *   pbkdf2$iterations$salt$hash
+ *
+ * with the salt and hash in Base64, so the iteration count can be raised
+ * later without breaking records written before. Records from before this
+ * scheme hold the hex String.hashCode of the password, and the oldest hold
+ * the password itself; those still verify and needsRehash tells the caller
+ * to replace them.
+ *
+ * Both operations are deliberately slow. Call them from Auth's workers,
+ * never from a thread that runs commands.
+ */
+public class Passwords {
+    private final static String PREFIX = "pbkdf2";
+    private final static String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private final static int SALT_BYTES = 16;
+    private final static int HASH_BITS = 256;
+    private final static SecureRandom RANDOM = new SecureRandom();
+    private final static Pattern LEGACY_HASH = Pattern.compile("-?[0-9a-f]{1,8}");
+
+    // Set from the command line in Server.main
+    public static int iterations = 100000;
+
+    private Passwords(){}
+
+    /************************************************************************
+     * Hashes a password with a new random salt.
+     * @param password The password as typed
+     * @return String - the hash in the stored format.
+     ************************************************************************/
+    public static String hash(String password){
+        byte[] salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        Base64.Encoder b64 = Base64.getEncoder();
+        return PREFIX + "$" + iterations + "$" + b64.encodeToString(salt) + "$" +
+            b64.encodeToString(derive(password, salt, iterations));
+    }
+
+    /************************************************************************
+     * Checks a password against a stored hash.
+     * @param password The password as typed
+     * @param stored The hash from the player record
+     * @return boolean - true if the password matches, false if it does not
+     * or the stored hash cannot be read.
+     ************************************************************************/
+    public static boolean verify(String password, String stored){
+        if (stored == null || stored.isEmpty()){
+            return false;
+        }
+        String[] parts = stored.split("\\$");
+        if (parts.length != 4 || !parts[0].equals(PREFIX)){
+            // Legacy record: hex String.hashCode, or plain text. A valid
+            // password always has upper case letters, so one that looks
+            // like a hashCode is a hash and the stored text itself must
+            // never be accepted for it.
+            byte[] expected = stored.getBytes(StandardCharsets.UTF_8);
+            String legacy = LEGACY_HASH.matcher(stored).matches() ?
+                Integer.toHexString(password.hashCode()) : password;
+            return MessageDigest.isEqual(expected, legacy.getBytes(StandardCharsets.UTF_8));
+        }
+        try {
+            int rounds = Integer.parseInt(parts[1]);
+            Base64.Decoder b64 = Base64.getDecoder();
+            byte[] salt = b64.decode(parts[2]);
+            byte[] expected = b64.decode(parts[3]);
+            return MessageDigest.isEqual(expected, derive(password, salt, rounds));
+        } catch (IllegalArgumentException ex){
+            Log.error("An error occurred reading a password hash", "error", ex.getMessage());
+            return false;
+        }
+    }
+
+    /************************************************************************
+     * Tells whether a stored hash is weaker than what hash writes now.
+     * @param stored The hash from the player record
+     * @return boolean - true if it should be replaced after the next
+     * successful login.
+     ************************************************************************/
+    public static boolean needsRehash(String stored){
+        String[] parts = stored.split("\\$");
+        return parts.length != 4 || !parts[0].equals(PREFIX) ||
+            !parts[1].equals(String.valueOf(iterations));
+    }
+
+    private static byte[] derive(String password, byte[] salt, int rounds){
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, rounds, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException ex){
+            throw new IllegalStateException(ALGORITHM + " is not available.", ex);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
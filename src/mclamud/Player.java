@@ -1,20 +1,35 @@
 package mclamud;
 
+import java.io.OutputStream;
 import java.net.Socket;
-import java.util.ArrayList;
 
 public class Player {
     
     public String description = "A rather ordinary looking player.";
     public String name = "Nobody";
-    public String password = "Password1";
+    public volatile String password = ""; // hash, see Passwords
     public int location = 1; 
     public Socket socket;
-    public ArrayList<String> inventory = new ArrayList<>();
+    public Telnet telnet; // protocol engine, created when the player connects
+    public OutputStream stream; // to the telnet engine, written by Outbound
+    public final Outbound outbound = new Outbound(this); // queued messages for output
+    public ItemBag inventory = new ItemBag();
     
     private Player(){}
     
     public Player(Socket sock){
         this.socket = sock;
     }
+    
+    /************************************************************************
+     * Attaches the player to the connection's telnet engine. Outbound
+     * batches what was queued and flushes once it has written everything,
+     * so a room display is one socket write (and one compressed block when
+     * MCCP2 is on).
+     * @param telnet The connection's telnet engine
+     ************************************************************************/
+    public void connect(Telnet telnet){
+        this.telnet = telnet;
+        this.stream = telnet.output();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,206 @@
+package mclamud;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * PlayerCache sits in front of another PlayerStore and keeps the records
+ * it has seen recently, so a storm of reconnects reads each player from
+ * disk once. Names that have no record are remembered too. The cache holds
+ * at most a given number of bytes of records and drops the least recently
+ * used ones to stay under it. Writes go straight through to the store.
+ */
+public class PlayerCache implements PlayerStore {
+    // Rough cost of an entry beyond its characters: the key, the map entry
+    // and the String headers
+    private final static int ENTRY_OVERHEAD = 96;
+    private final static ExecutorService LOADERS = Executors.newFixedThreadPool(2, r -> {
+        Thread t = new Thread(r, "player-prefetch");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final PlayerStore store;
+    private final long capacity;
+    // Record contents, or MISSING for a name with no record. Access order,
+    // so iteration starts at the least recently used.
+    private final LinkedHashMap<String, String> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<String, CompletableFuture<String>> loading = new ConcurrentHashMap<>();
+    private long bytes = 0;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private final static String MISSING = new String("");
+
+    /************************************************************************
+     * @param store The store being cached
+     * @param capacity Most bytes of records to keep
+     ************************************************************************/
+    public PlayerCache(PlayerStore store, long capacity){
+        this.store = store;
+        this.capacity = capacity;
+    }
+
+    @Override
+    public boolean exists(String name){
+        String key = name.toLowerCase();
+        String cached = get(key);
+        boolean outcome;
+        if (cached != null){
+            hits.incrementAndGet();
+            outcome = cached != MISSING;
+        } else {
+            misses.incrementAndGet();
+            outcome = store.exists(key);
+            if (!outcome){
+                fill(key, null);
+            }
+        }
+        return outcome;
+    }
+
+    @Override
+    public String read(String name){
+        String key = name.toLowerCase();
+        String cached = get(key);
+        if (cached != null){
+            hits.incrementAndGet();
+            return cached == MISSING ? null : cached;
+        }
+        misses.incrementAndGet();
+        // A finished load has already been cached, or failed, so only one
+        // still running is worth waiting for
+        CompletableFuture<String> pending = loading.get(key);
+        String contents;
+        if (pending != null && !pending.isDone()){
+            contents = await(pending);
+        } else {
+            contents = store.read(key);
+            fill(key, contents);
+        }
+        return contents;
+    }
+
+    /************************************************************************
+     * Starts reading a record in the background if it is not cached, so a
+     * read that follows shortly finds it ready.
+     * @param name Player name
+     ************************************************************************/
+    @Override
+    public void prefetch(String name){
+        String key = name.toLowerCase();
+        if (get(key) == null){
+            CompletableFuture<String> future = loading.computeIfAbsent(key, k ->
+                CompletableFuture.supplyAsync(() -> {
+                    String contents = store.read(k);
+                    fill(k, contents);
+                    return contents;
+                }, LOADERS));
+            // Registered once the future is in the map, so it is removed
+            // however early or badly the load finishes
+            future.whenComplete((contents, error) -> loading.remove(key, future));
+        }
+    }
+
+    @Override
+    public boolean write(String name, String contents){
+        put(name.toLowerCase(), contents);
+        return store.write(name, contents);
+    }
+
+    @Override
+    public boolean writeAll(Map<String, String> records){
+        for (Map.Entry<String, String> e : records.entrySet()){
+            put(e.getKey().toLowerCase(), e.getValue());
+        }
+        return store.writeAll(records);
+    }
+
+    public long hits(){
+        return hits.get();
+    }
+
+    public long misses(){
+        return misses.get();
+    }
+
+    public long evictions(){
+        return evictions.get();
+    }
+
+    public long bytes(){
+        lock.lock();
+        try {
+            return bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private String get(String key){
+        lock.lock();
+        try {
+            return entries.get(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Caches what was read from the store, unless a write got in first
+    private void fill(String key, String contents){
+        lock.lock();
+        try {
+            if (!entries.containsKey(key)){
+                put(key, contents != null ? contents : MISSING);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void put(String key, String contents){
+        lock.lock();
+        try {
+            String old = entries.put(key, contents);
+            if (old != null){
+                bytes -= weight(key, old);
+            }
+            bytes += weight(key, contents);
+            Iterator<Map.Entry<String, String>> eldest = entries.entrySet().iterator();
+            while (bytes > capacity && eldest.hasNext()){
+                Map.Entry<String, String> e = eldest.next();
+                bytes -= weight(e.getKey(), e.getValue());
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static long weight(String key, String contents){
+        return ENTRY_OVERHEAD + 2L * (key.length() + contents.length());
+    }
+
+    private String await(CompletableFuture<String> pending){
+        String contents = null;
+        try {
+            contents = pending.get();
+        } catch (InterruptedException ex){
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex){
+            Log.error("An error occurred loading a player", "error", ex.getCause());
+        }
+        return contents;
+    }
+}
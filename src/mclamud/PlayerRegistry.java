@@ -0,0 +1,56 @@
+package mclamud;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * PlayerRegistry is the list of players currently in the world, keyed by
+ * lowercase player name. Lookups are O(1), iteration is safe while other
+ * threads log in and out, and a name can only be online once.
+ */
+public class PlayerRegistry {
+    private final static ConcurrentHashMap<String, Player> ONLINE = new ConcurrentHashMap<>();
+
+    private PlayerRegistry(){}
+
+    /************************************************************************
+     * Registers a player who has just logged in.
+     * @param p Player object
+     * @return boolean - true if registered, false if the name is already
+     * online.
+     ************************************************************************/
+    public static boolean add(Player p){
+        return ONLINE.putIfAbsent(p.name.toLowerCase(), p) == null;
+    }
+
+    /************************************************************************
+     * Unregisters a player. Only removes the entry if it is this exact
+     * player, so a rejected duplicate login cannot remove the real one.
+     * @param p Player object
+     ************************************************************************/
+    public static void remove(Player p){
+        ONLINE.remove(p.name.toLowerCase(), p);
+    }
+
+    /************************************************************************
+     * Finds an online player by name, ignoring case.
+     * @param name Player name
+     * @return Player object, or null if nobody by that name is online.
+     ************************************************************************/
+    public static Player find(String name){
+        return ONLINE.get(name.toLowerCase());
+    }
+
+    /************************************************************************
+     * Returns a live view of every online player. Iterating it never
+     * throws ConcurrentModificationException.
+     * @return Collection of Player objects
+     ************************************************************************/
+    public static Collection<Player> all(){
+        return ONLINE.values();
+    }
+
+    public static int size(){
+        return ONLINE.size();
+    }
+}
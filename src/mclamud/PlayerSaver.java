@@ -0,0 +1,212 @@
+package mclamud;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * PlayerSaver is write-behind persistence for players. Commands mark a
+ * player dirty, which only renders the player in memory; the files are
+ * written on an interval, when a player saves or quits, and at shutdown.
+ * However often a player changes between flushes, the file is written once.
+ */
+public class PlayerSaver {
+    private final static ConcurrentHashMap<String, Record> RECORDS = new ConcurrentHashMap<>();
+    private final static Set<String> DIRTY = ConcurrentHashMap.newKeySet();
+    private static ScheduledExecutorService scheduler = null;
+
+    private PlayerSaver(){}
+
+    /**
+     * The latest unsaved rendering of one player. lock guards the fields
+     * and is only ever held briefly, so markDirty never waits on the disk.
+     * writing is held around a write of this player's file, so two threads
+     * cannot write it at once and copies land in the order they were taken.
+     * Both are ReentrantLocks so a virtual thread does not pin its carrier.
+     */
+    private static class Record {
+        final String name;
+        final ReentrantLock lock = new ReentrantLock();
+        final ReentrantLock writing = new ReentrantLock();
+        String contents = null; // null when the file is up to date
+        long generation = 0; // bumped by every markDirty
+        boolean removed = false; // pruned from RECORDS, use a fresh one
+
+        Record(String name){
+            this.name = name;
+        }
+    }
+
+    /************************************************************************
+     * Starts the background flush and registers a shutdown hook that
+     * writes anything still dirty.
+     * @param intervalSeconds Seconds between flushes
+     ************************************************************************/
+    public static synchronized void start(int intervalSeconds){
+        if (scheduler == null){
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "player-saver");
+                t.setDaemon(true);
+                return t;
+            });
+            scheduler.scheduleWithFixedDelay(PlayerSaver::flush, intervalSeconds,
+                intervalSeconds, TimeUnit.SECONDS);
+            Runtime.getRuntime().addShutdownHook(new Thread(PlayerSaver::flush, "player-saver-shutdown"));
+        }
+    }
+
+    /************************************************************************
+     * Records that a player has changed. Takes a copy of the player right
+     * away, on the caller's thread, so the flush never reads a Player that
+     * is being changed.
+     * @param p Player object
+     ************************************************************************/
+    public static void markDirty(Player p){
+        String key = p.name.toLowerCase();
+        String contents = World.formatPlayer(p);
+        while (true){
+            Record r = RECORDS.computeIfAbsent(key, Record::new);
+            r.lock.lock();
+            try {
+                if (!r.removed){
+                    r.contents = contents;
+                    r.generation++;
+                    break;
+                }
+            } finally {
+                r.lock.unlock();
+            }
+        }
+        DIRTY.add(key);
+    }
+
+    /************************************************************************
+     * Saves a player now, for the save and quit commands.
+     * @param p Player object
+     * @return boolean indication failure or success
+     ************************************************************************/
+    public static boolean save(Player p){
+        markDirty(p);
+        DIRTY.remove(p.name.toLowerCase());
+        return write(RECORDS.get(p.name.toLowerCase()));
+    }
+
+    /************************************************************************
+     * Writes every dirty player as one batch, so a store that forces its
+     * writes to disk does so once per flush rather than once per player.
+     ************************************************************************/
+    public static void flush(){
+        List<Record> locked = new ArrayList<>();
+        List<Record> batched = new ArrayList<>();
+        List<Long> generations = new ArrayList<>();
+        Map<String, String> batch = new HashMap<>();
+        try {
+            for (String key : DIRTY){
+                if (DIRTY.remove(key)){
+                    Record r = RECORDS.get(key);
+                    // writing is held until the batch is written so a save
+                    // of the same player cannot land before this older
+                    // copy. Only this method holds more than one, and a key
+                    // is only ever taken out of DIRTY by one flush.
+                    r.writing.lock();
+                    locked.add(r);
+                    r.lock.lock();
+                    try {
+                        if (r.contents != null){
+                            batch.put(r.name, r.contents);
+                            batched.add(r);
+                            generations.add(r.generation);
+                        }
+                    } finally {
+                        r.lock.unlock();
+                    }
+                }
+            }
+            boolean written = !batch.isEmpty() && writeAll(batch);
+            for (int i = 0; i < batched.size(); i++){
+                written(batched.get(i), generations.get(i), written);
+            }
+        } finally {
+            for (Record r : locked){
+                r.writing.unlock();
+            }
+        }
+        prune();
+    }
+
+    // Contents are only let go once they are safely written and nothing
+    // newer has been marked meanwhile; on a failure the player stays dirty
+    // for the next flush
+    private static void written(Record r, long generation, boolean outcome){
+        r.lock.lock();
+        try {
+            if (!outcome){
+                DIRTY.add(r.name);
+            } else if (r.generation == generation){
+                r.contents = null;
+            }
+        } finally {
+            r.lock.unlock();
+        }
+    }
+
+    // Drops the records of players who are saved and no longer online
+    private static void prune(){
+        for (Record r : RECORDS.values()){
+            if (r.lock.tryLock()){
+                try {
+                    if (r.contents == null && PlayerRegistry.find(r.name) == null){
+                        r.removed = true;
+                        RECORDS.remove(r.name, r);
+                    }
+                } finally {
+                    r.lock.unlock();
+                }
+            }
+        }
+    }
+
+    private static boolean writeAll(Map<String, String> batch){
+        try {
+            return World.playerStore().writeAll(batch);
+        } catch (RuntimeException ex){
+            Log.error("An error occurred saving players", "count", batch.size(), "error", ex);
+            return false;
+        }
+    }
+
+    private static boolean write(Record r){
+        boolean outcome = true;
+        r.writing.lock();
+        try {
+            String contents;
+            long generation;
+            r.lock.lock();
+            try {
+                contents = r.contents;
+                generation = r.generation;
+            } finally {
+                r.lock.unlock();
+            }
+            if (contents != null){
+                try {
+                    outcome = World.playerStore().write(r.name, contents);
+                } catch (RuntimeException ex){
+                    Log.error("An error occurred saving a player", "player", r.name, "error", ex);
+                    outcome = false;
+                }
+                written(r, generation, outcome);
+            }
+        } finally {
+            r.writing.unlock();
+        }
+        return outcome;
+    }
+}
@@ -0,0 +1,49 @@
+package mclamud;
+
+import java.util.Map;
+
+/**
+ * PlayerStore is where player records are kept between sessions. A record
+ * is the text of a .player file whatever the store, so World does all of
+ * the parsing and formatting. Names are matched ignoring case.
+ */
+public interface PlayerStore {
+
+    /************************************************************************
+     * Tests to see if a player has a record.
+     * @param name Player name
+     * @return boolean - true if it exists and false if it does not.
+     ************************************************************************/
+    boolean exists(String name);
+
+    /************************************************************************
+     * Reads a player record.
+     * @param name Player name
+     * @return String in the .player format, or null if there is no record.
+     ************************************************************************/
+    String read(String name);
+
+    /************************************************************************
+     * Replaces a player record.
+     * @param name Player name
+     * @param contents Record in the .player format
+     * @return boolean indication failure or success
+     ************************************************************************/
+    boolean write(String name, String contents);
+
+    /************************************************************************
+     * Replaces several player records at once, so a store can make them
+     * durable together instead of one at a time.
+     * @param records Record contents keyed by player name
+     * @return boolean indication failure or success
+     ************************************************************************/
+    boolean writeAll(Map<String, String> records);
+
+    /************************************************************************
+     * Hints that a record will be read soon. Stores that can read ahead
+     * start doing so; the rest ignore it.
+     * @param name Player name
+     ************************************************************************/
+    default void prefetch(String name){
+    }
+}
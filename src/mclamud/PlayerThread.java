@@ -1,336 +1,237 @@
 package mclamud;
 
-import Sorting.BubbleSort;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintWriter;
 import java.net.Socket;
-import java.util.NoSuchElementException;
-import java.util.Scanner;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class PlayerThread implements Runnable {
     
     private final Socket psock;
     private final Player player;
+    private final LoginHandler login;
+    private volatile boolean loggedIn = false;
+    private final AtomicBoolean ended = new AtomicBoolean(false);
+    // Set by front ends that must not block on a password check
+    private Runnable resume = null;
     
     public PlayerThread(Socket sock){
         this.psock= sock;
         this.player = new Player(this.psock);
+        this.login = new LoginHandler(this.player);
+        Metrics.sessionOpened();
     }
 
     @Override
     public void run() {  
-        Scanner in;
+        InputStream in;
+        LineDecoder lines = new LineDecoder();
         PrintWriter out;
         String playerIn;
         boolean exit = false;
         try {
-            in = new Scanner(psock.getInputStream(),"ISO-8859-1");
-            out = new PrintWriter(psock.getOutputStream(), true);
-            out.println("\u001B[31m"+"Entering Sh'aide");
-            out.println("\u001B[33m"+"Pop: declining"+"\u001B[0m");
-            if (!playerLogin(in, out)){ // Failed login
-                exit = true;
-                exitPlayer();
-            } else { //Successful login.
-                Server.curUsers.add(player);
-                World.movePlayer(player, player.location);
-                World.sendMessageToArea(player, player.name + " has arrived.");
-                World.displayArea(player.location, player);
-            }
+            Telnet telnet = new Telnet(psock.getOutputStream());
+            in = telnet.input(psock.getInputStream());
+            player.connect(telnet);
+            out = new PrintWriter(player.outbound.writer());
+            telnet.start();
+            greet(out);
             while(!exit){ //Main loop
-                playerIn = in.nextLine();
-                exit = commandDispatcher(playerIn, out);
+                playerIn = lines.readLine(in);
+                if (playerIn == null){
+                    throw new EOFException();
+                }
+                if (lines.allow()){
+                    exit = handleLine(playerIn, out);
+                } else {
+                    throttle(lines);
+                }
             }
             //Player has left world
-            World.sendMessageToArea(player, player.name + " has returned to reality.");
-            exitPlayer();
-        } catch (IOException | NoSuchElementException e) {
+            endSession(" has returned to reality.");
+        } catch (IOException e) {
             //Connection has been lost
-            World.sendMessageToArea(player, player.name + " crumbles into dust.");
-            exitPlayer();
+            endSession(" crumbles into dust.");
         }
     }
     
-    private void exitPlayer(){
-        try {
-            String ip = psock.getInetAddress().toString();
-            System.out.println(ip + " disconnected.");
-            psock.close();
-        } catch (IOException ex){ 
-            System.out.println("An IOException occurred when a player exited.");
-        }
-        finally{
-            World.removePlayer(player);
+    /************************************************************************
+     * Warns a player who is typing faster than the input rate limit. Only
+     * the first ignored line of a burst gets a warning.
+     * @param lines The connection's line decoder
+     ************************************************************************/
+    void throttle(LineDecoder lines){
+        if (lines.firstThrottled()){
+            player.outbound.println("You are typing too fast. That was ignored.");
         }
     }
     
-    private boolean commandDispatcher(String command, PrintWriter out){
+    /************************************************************************
+     * Sends the banner and the first login prompt to a new connection.
+     * @param out PrintWriter of the connecting player
+     ************************************************************************/
+    void greet(PrintWriter out){
+        out.println("\u001B[31m"+"Entering Sh'aide");
+        out.println("\u001B[33m"+"Pop: declining"+"\u001B[0m");
+        login.start(out);
+    }
+    
+    /************************************************************************
+     * Feeds one line of input to the session. Lines go to the login dialogue
+     * until the player is logged in and to CommandRegistry afterwards.
+     * In tick mode commands are queued for the next tick instead, and the
+     * tick ends the session if the command asks it to.
+     * @param line A line entered by the player
+     * @param out PrintWriter of the player
+     * @return boolean - true when the session is over.
+     ************************************************************************/
+    boolean handleLine(String line, PrintWriter out){
         boolean exitFlag = false;
-        command = command.trim();
-        String[] tokens= {};
-        if (command.length() > 0){
-            if(command.length() > 2)
-                tokens = command.split(" ", 3);
-            else if(command.length() <= 2)
-                tokens = command.split(" ",2);
-            else
-                tokens[0] = command;
-            switch(tokens[0].toLowerCase()){
-                case "walk":
-                case "go":
-                case "w":
-                case "g":
-                    if (tokens.length > 1){
-                        if (World.doWalk(player, tokens[1])){
-                            World.displayArea(player.location, player);
-                        } else {
-                            out.println("You can't go in that direction.");
-                        }
-                    } else {
-                        out.println("Command format is: walk/go <direction>");
-                    }
-                    break;
-                case "bsort":
-                    int[] input = { 4, 2, 9, 6, 23, 12, 34, 0, 1 };
-                    BubbleSort.bubble_srt(out,input);
-                    break;
-                case "describe":
-                    if (tokens.length > 1){
-                        player.description = "";
-                        for(int i = 1; i < tokens.length; i++){
-                            player.description += tokens[i] + " ";
-                        }
-                        World.writePlayer(player);
-                    }
-                    else
-                        World.helpMe(out,tokens[0],true);
-                    break;  
-                case "look":
-                case "/l":
-                    switch (tokens.length) {
-                        case 1:
-                            World.displayArea(player.location, player);
-                            break;
-                        case 2:
-                            switch (tokens[1]){
-                                case "north":
-                                case "n":
-                                case "south":
-                                case "s":
-                                case "west":
-                                case "w":
-                                case "east":
-                                case "e":
-                                case "up":
-                                case "u":
-                                case "down":
-                                case "d":
-                                    World.doLook(out, player,tokens[1]);
-                                    break ;
-                                default:
-                                    Area a = World.areaMap.get(player.location);
-                                    for (Player x : a.players.values()){
-                                        if (x.name.equalsIgnoreCase(tokens[1])){
-                                            out.println(x.description);
-                                        }
-                                        else
-                                            World.helpMe(out,tokens[0],true);
-                                    }
-                                    break;
-                            }
-                        default:
-                            World.helpMe(out,tokens[0],true);
-                            break;
-                    }
-                    break;
-                case "inventory":
-                case "/i":
-                    World.listInventory(out, player);
-                    break;
-                case "say":
-                    //System.out.println(tokens.length);
-                    switch (tokens.length) {
-                         case 2:
-                            World.sendMessageToArea(player,tokens[1]);
-                            break;
-                        case 3:
-                            World.sendMessageToArea(player,tokens[1] + " " + tokens[2]);
-                            break;
-                        default:
-                            break;
-                    }
-                    break;
-                case "yell":
-                    //System.out.println(tokens.length);
-                    switch (tokens.length) {
-                         case 2:
-                            World.sendMessageToWorld(player,tokens[1]);
-                            break;
-                        case 3:
-                            World.sendMessageToWorld(player,tokens[1] + " " + tokens[2]);
-                            break;
-                        default:
-                            break;
-                    }
-                    break;
-                case "whisper":
-                case "/w":
-                    if(tokens.length > 2)
-                        World.sendMessageToPlayer(player,tokens[1],tokens[2]);
-                    break;  
-                case "emote":
-                case "/e":
-                    if(tokens.length > 2)
-                        World.sendEmotetoPlayer(player,tokens[1],tokens[2]);
-                    break; 
-                case "get":
-                case "take":
-                    if(tokens.length > 1 )
-                        World.getItem(tokens[1], player);
-                    World.writePlayer(player);
-                    World.displayArea(player.location, player);
-                    break;    
-                case "drop":
-                    if(tokens.length > 1 && player.inventory.contains(tokens[1]))
-                        World.dropItem(tokens[1], player);
-                    World.writePlayer(player);
-                    World.displayArea(player.location, player);
-                    break; 
-                case "save":
-                    World.writePlayer(player);
-                    out.println("Player Saved...");
-                    World.displayArea(player.location, player);
-                    break; 
-                case "exit":
-                case "quit":
-                    World.writePlayer(player);
-                    exitFlag = true;
-                    break;
-                default:
-                    out.println("Command \"" + command + "\" is not valid.");
-            }
+        if (loggedIn && WorldTick.isRunning()){
+            WorldTick.submit(this, line, out);
+            return false;
+        } else if (loggedIn){
+            exitFlag = CommandRegistry.dispatch(player, line, out);
+        } else {
+            exitFlag = loginResult(login.handleLine(line, out), out);
         }
+        out.flush(); // one message per command
         return exitFlag;
     }
     
-    private boolean playerLogin(Scanner in, PrintWriter out){
-        boolean outcome = false;
-        boolean exit = false;
-        boolean validUsername;
-        boolean validPassword;
-        String playerName = null;
-        String playerPassword = null;
-        TelnetFilter filter = new TelnetFilter();
-        while(!exit){
-            validUsername = false;
-            validPassword = false;
-            while(!validUsername){
-                out.print("Enter your existing or desired player name: ");
-                out.flush();
-                playerName = filter.stripTelnet(in.nextLine());
-                if (World.isValidPlayername(playerName)){
-                    validUsername = true;
+    /************************************************************************
+     * Asks for resumeLogin to be called, through the given hook, whenever a
+     * password check finishes instead of waiting for it on the calling
+     * thread. The NIO front end uses this so its workers never block.
+     * @param hook Called on an auth thread when the check is done
+     ************************************************************************/
+    void resumeWith(Runnable hook){
+        this.resume = hook;
+    }
+    
+    /************************************************************************
+     * Carries on the login after a password check. Called by the session's
+     * own thread once the hook given to resumeWith has run.
+     * @param out PrintWriter of the player
+     * @return boolean - true when the session is over.
+     ************************************************************************/
+    boolean resumeLogin(PrintWriter out){
+        boolean exitFlag = loginResult(login.finish(out), out);
+        out.flush();
+        return exitFlag;
+    }
+    
+    private boolean loginResult(LoginHandler.Result result, PrintWriter out){
+        boolean exitFlag = false;
+        switch (result){
+            case SUCCESS: //Successful login.
+                if (PlayerRegistry.add(player)){
+                    loggedIn = true;
+                    login.admitted();
+                    World.movePlayer(player, player.location);
+                    World.sendMessageToArea(player, player.name + " has arrived.");
+                    World.displayArea(player.location, player);
                 } else {
-                    out.println("The player name " + playerName + " was not valid.");
-                    out.println("Your player name must be at least three characters " +
-                        "and only use letters, numbers, and the underscore.");
-                    if (!doAgain(in, out)){
-                        outcome = false;
-                        exit = true;
-                        break;
-                    }
+                    out.println(player.name + " is already in the world.");
+                    player.inventory.clear();
+                    login.start(out);
                 }
-            }
-            if (validUsername){
-                if (World.doesPlayerExist(playerName)){
-                    while(!validPassword){
-                        out.print("Enter your password: ");
-                        out.flush();
-                        playerPassword = in.nextLine();
-                        boolean goodPassword = true;  //Check password
-                        if (goodPassword){
-                            Player x = World.loadPlayer(playerName);
-                            player.name = playerName;
-                            player.inventory.addAll(x.inventory);
-                            validPassword = true;
-                            outcome = true;
-                            exit = true;
-                        } else {
-                            out.println("The password was not correct.");
-                            if (!doAgain(in, out)){
-                                outcome = false;
-                                exit = true;
-                                break;
-                            }
-                        }
-                    }
+                break;
+            case FAILED:
+                exitFlag = true;
+                break;
+            case WAITING: //Password is with Auth
+                if (resume != null){
+                    Runnable hook = resume;
+                    login.pending().whenComplete((value, error) -> hook.run());
                 } else {
-                    out.println("The player name " + playerName + " does not exist.");
-                    if (doAgain(in, out, "Would you like to use the name " + playerName + "?")){
-                        while(!validPassword){
-                            String passwordRequirements = "A valid password is at least eight characters long, " +
-                                "contains at least one UPPERCASE letter, one lowercase letter, and one number.";
-                            out.println(passwordRequirements);
-                            out.print("Enter a password: ");
-                            out.flush();
-                            playerPassword = in.nextLine();
-                            if (World.isValidPassword(playerPassword)){
-                                Player x = World.loadPlayer(playerName);
-                                player.name = playerName;
-                                player.password = playerPassword;
-                                player.inventory.addAll(x.inventory);
-                                World.writePlayer(player);
-                                validPassword = true;
-                                outcome = true;
-                                exit = true;
-                            } else {
-                                out.println("That password did not meet requirements.");
-                                if (!doAgain(in, out)){
-                                    if (doAgain(in, out, "Would you like to enter a new player name?")){
-                                        exit = false;
-                                    } else {
-                                        outcome = false;
-                                        exit = true;
-                                    }
-                                    break;
-                                }
-                            }
-                        }
-                    } else {
-                        if (doAgain(in, out, "Would you like to enter a new player name?")){
-                            exit = false;
-                        } else {
-                            outcome = false;
-                            exit = true;
-                        }
+                    // This connection's own thread, so only this player waits
+                    try {
+                        login.pending().join();
+                    } catch (CompletionException | CancellationException ex){
+                        // finish reports it
                     }
+                    exitFlag = loginResult(login.finish(out), out);
                 }
+                break;
+            default:
+                break;
+        }
+        return exitFlag;
+    }
+    
+    /************************************************************************
+     * Runs a command queued by handleLine. Called by the WorldTick thread.
+     * @param line The command as typed
+     * @param out PrintWriter of the player
+     ************************************************************************/
+    void runCommand(String line, PrintWriter out){
+        if (!ended.get()){
+            boolean exitFlag = CommandRegistry.dispatch(player, line, out);
+            out.flush();
+            if (exitFlag){
+                closeSession(" has returned to reality.");
             }
         }
-        return outcome;
     }
-     
-    private boolean doAgain(Scanner in, PrintWriter out){
-        String defaultPrompt = "Do you want to try again?";
-        return doAgain(in, out, defaultPrompt);
+    
+    /************************************************************************
+     * Ends the session. In tick mode a logged in player may be in the middle
+     * of a command on the tick thread, so leaving the world is queued behind
+     * whatever that player still has queued instead of racing it.
+     * @param farewell Text appended to the player name for the area
+     ************************************************************************/
+    void endSession(String farewell){
+        if (loggedIn && WorldTick.isRunning()){
+            if (!ended.get()){
+                WorldTick.end(this, farewell);
+            }
+        } else {
+            closeSession(farewell);
+        }
     }
     
-    private boolean doAgain(Scanner in, PrintWriter out, String prompt){
-        String choice;
-        boolean valid = false;
-        boolean outcome = true;
-        while(!valid){
-            out.print(prompt + " Yes or no? ");
-            out.flush();
-            choice = in.nextLine().toLowerCase();
-            if (choice.equals("yes") || choice.equals("y")){
-                outcome = true;
-                valid = true;
-            } else if (choice.equals("no") || choice.equals("n")){
-                outcome = false;
-                valid = true;
+    /************************************************************************
+     * Tells the area the player is leaving and closes the connection. Only
+     * the first call does anything, whichever thread notices first. In tick
+     * mode only the tick thread calls this for a logged in player.
+     * @param farewell Text appended to the player name for the area
+     ************************************************************************/
+    void closeSession(String farewell){
+        if (!ended.compareAndSet(false, true)){
+            return;
+        }
+        if (loggedIn){
+            World.sendMessageToArea(player, player.name + farewell);
+        }
+        exitPlayer();
+    }
+    
+    Player getPlayer(){
+        return player;
+    }
+    
+    private void exitPlayer(){
+        try {
+            Log.info("Player disconnected", "ip", psock.getInetAddress(),
+                "player", loggedIn ? player.name : null);
+            psock.close();
+        } catch (IOException ex){ 
+            Log.warn("An IOException occurred when a player exited", "error", ex.getMessage());
+        }
+        finally{
+            Metrics.sessionClosed();
+            if (player.telnet != null){
+                player.telnet.close();
+            }
+            if (loggedIn){
+                PlayerRegistry.remove(player);
+                World.removePlayer(player);
             }
         }
-        return outcome;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,154 @@
+package mclamud;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * RecordReader parses the [key]value format of .area and .player files in
+ * one pass over a CharBuffer. Each value is handed out as a trimmed view of
+ * the buffer, so nothing is copied until a caller turns a value into a
+ * String, and lists are split by hand rather than with a regex.
+ */
+public class RecordReader {
+
+    private RecordReader(){}
+
+    /************************************************************************
+     * Reads a whole UTF-8 file.
+     * @param path File to read
+     * @return CharBuffer of the contents, or null if the file does not exist
+     * @throws IOException if the file exists but cannot be read
+     ************************************************************************/
+    public static CharBuffer read(Path path) throws IOException {
+        CharBuffer text = null;
+        if (Files.exists(path)){
+            text = StandardCharsets.UTF_8.decode(ByteBuffer.wrap(Files.readAllBytes(path)));
+        }
+        return text;
+    }
+
+    /************************************************************************
+     * Splits text into [key]value fields. A value runs from the ] after its
+     * key up to the next [ or the end of the text.
+     * @param text The record contents
+     * @param handler Called with the lowercase key and the trimmed value
+     ************************************************************************/
+    public static void parse(CharBuffer text, BiConsumer<String, CharSequence> handler){
+        int limit = text.limit();
+        int i = text.position();
+        while (i < limit && text.get(i) != '['){
+            i++;
+        }
+        while (i < limit){
+            int keyEnd = i + 1;
+            while (keyEnd < limit && text.get(keyEnd) != ']'){
+                keyEnd++;
+            }
+            if (keyEnd >= limit){
+                break; // a [ with no closing ], nothing more to read
+            }
+            int next = keyEnd + 1;
+            while (next < limit && text.get(next) != '['){
+                next++;
+            }
+            String key = slice(text, i + 1, keyEnd).toString().toLowerCase();
+            handler.accept(key, slice(text, keyEnd + 1, next));
+            i = next;
+        }
+    }
+
+    /************************************************************************
+     * Splits a comma separated value into trimmed strings, leaving out
+     * empty entries.
+     * @param value A field value
+     * @return List of the entries
+     ************************************************************************/
+    public static List<String> splitList(CharSequence value){
+        List<String> entries = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i <= value.length(); i++){
+            if (i == value.length() || value.charAt(i) == ','){
+                CharSequence entry = trim(value, start, i);
+                if (entry.length() > 0){
+                    entries.add(entry.toString());
+                }
+                start = i + 1;
+            }
+        }
+        return entries;
+    }
+
+    /************************************************************************
+     * Parses a comma separated list of integers into an array, stopping
+     * when the array is full.
+     * @param value A field value
+     * @param into Array to fill from index 0
+     ************************************************************************/
+    public static void parseInts(CharSequence value, int[] into){
+        int start = 0;
+        int index = 0;
+        for (int i = 0; i <= value.length() && index < into.length; i++){
+            if (i == value.length() || value.charAt(i) == ','){
+                into[index++] = parseInt(trim(value, start, i));
+                start = i + 1;
+            }
+        }
+    }
+
+    /************************************************************************
+     * Parses a decimal integer without making a String of it first.
+     * @param value Trimmed digits, optionally signed
+     * @return int value
+     * @throws NumberFormatException if value is not a number
+     ************************************************************************/
+    public static int parseInt(CharSequence value){
+        int length = value.length();
+        if (length == 0){
+            throw new NumberFormatException("Empty number");
+        }
+        boolean negative = value.charAt(0) == '-';
+        int i = negative || value.charAt(0) == '+' ? 1 : 0;
+        if (i == length){
+            throw new NumberFormatException(value.toString());
+        }
+        int result = 0;
+        for (; i < length; i++){
+            int digit = value.charAt(i) - '0';
+            if (digit < 0 || digit > 9){
+                throw new NumberFormatException(value.toString());
+            }
+            result = result * 10 + digit;
+        }
+        return negative ? -result : result;
+    }
+
+    private static CharSequence slice(CharBuffer text, int start, int end){
+        while (start < end && text.get(start) <= ' '){
+            start++;
+        }
+        while (end > start && text.get(end - 1) <= ' '){
+            end--;
+        }
+        CharBuffer view = text.duplicate();
+        view.limit(end);
+        view.position(start);
+        return view;
+    }
+
+    private static CharSequence trim(CharSequence value, int start, int end){
+        while (start < end && value.charAt(start) <= ' '){
+            start++;
+        }
+        while (end > start && value.charAt(end - 1) <= ' '){
+            end--;
+        }
+        return value.subSequence(start, end);
+    }
+}
@@ -1,36 +1,213 @@
 package mclamud;
 
 import java.io.IOException;
+import java.lang.reflect.Method;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.ArrayList;
+import java.nio.file.Paths;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 public class Server {
-    public static ArrayList<Player> curUsers = new ArrayList<>();
     public static void main(String[] args) throws IOException {
         final int PORT = 6666;
         final int THREADS = 500;
+        final int NIO_WORKERS = Runtime.getRuntime().availableProcessors();
+        final int TICK_MILLIS = 100;
+        final String KV_FILE = "world.db";
+        int saveSeconds = 30;
+        int snapshotSeconds = 300;
         boolean exit = false;
-        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        boolean nio = false;
+        boolean virtual = false;
+        boolean preload = false;
+        String mapped = null;
+        String store = "files";
+        int playerCacheKb = 4096;
+        int adminPort = 0;
+        for (String arg : args){
+            String[] option = arg.split("=", 2);
+            switch(option[0]){
+                case "--nio":
+                    nio = true;
+                    break;
+                case "--virtual":
+                    virtual = true;
+                    break;
+                case "--outbound-capacity":
+                    Outbound.capacity = Integer.parseInt(option[1]);
+                    break;
+                case "--preload":
+                    preload = true;
+                    break;
+                case "--store":
+                    store = option[1];
+                    break;
+                case "--max-line":
+                    LineDecoder.maxLineLength = Integer.parseInt(option[1]);
+                    break;
+                case "--input-rate":
+                    LineDecoder.linesPerSecond = Integer.parseInt(option[1]);
+                    break;
+                case "--player-cache":
+                    playerCacheKb = Integer.parseInt(option[1]);
+                    break;
+                case "--mapped":
+                    mapped = option.length > 1 ? option[1] : "areas.bin";
+                    break;
+                case "--tick":
+                    WorldTick.start(option.length > 1 ? Integer.parseInt(option[1]) : TICK_MILLIS);
+                    break;
+                case "--save-interval":
+                    saveSeconds = Integer.parseInt(option[1]);
+                    break;
+                case "--snapshot-interval":
+                    snapshotSeconds = Integer.parseInt(option[1]);
+                    break;
+                case "--outbound-writers":
+                    Outbound.writerThreads = Integer.parseInt(option[1]);
+                    break;
+                case "--write-timeout":
+                    Outbound.writeTimeoutSeconds = Integer.parseInt(option[1]);
+                    break;
+                case "--slow-consumer":
+                    Outbound.policy = Outbound.Policy.valueOf(option[1].toUpperCase());
+                    break;
+                case "--admin-port":
+                    adminPort = Integer.parseInt(option[1]);
+                    break;
+                case "--auth-threads":
+                    Auth.threads = Integer.parseInt(option[1]);
+                    break;
+                case "--auth-queue":
+                    Auth.queueDepth = Integer.parseInt(option[1]);
+                    break;
+                case "--login-rate":
+                    Auth.attemptsPerMinute = Integer.parseInt(option[1]);
+                    break;
+                case "--log":
+                    Log.to(Paths.get(option[1]));
+                    break;
+                case "--slow-command":
+                    CommandRegistry.slowMillis = Integer.parseInt(option[1]);
+                    break;
+                case "--interest-radius":
+                    Interest.radius = Integer.parseInt(option[1]);
+                    break;
+                case "--movement-radius":
+                    Interest.movementRadius = Integer.parseInt(option[1]);
+                    break;
+                case "--kdf-iterations":
+                    Passwords.iterations = Integer.parseInt(option[1]);
+                    break;
+                default:
+                    Log.warn("Ignoring unknown option", "option", arg);
+            }
+        }
+        if (store.equals("kv")){
+            try {
+                KeyValueStore kv = KeyValueStore.open(Paths.get(KV_FILE));
+                if (kv.size() == 0){
+                    Log.info("Imported records", "count", kv.importFrom(new FileStore()), "path", KV_FILE);
+                }
+                World.useAreaStore(kv);
+                World.usePlayerStore(kv);
+            } catch (IOException ex){
+                Log.error("An error occurred opening the store", "path", KV_FILE, "error", ex.getMessage());
+                return;
+            }
+        } else if (!store.equals("files")){
+            Log.error("Unknown store, expected files or kv", "store", store);
+            return;
+        }
+        if (playerCacheKb > 0){
+            World.usePlayerStore(new PlayerCache(World.playerStore(), playerCacheKb * 1024L));
+        }
+        if (mapped != null){
+            try {
+                MappedAreaStore areas = MappedAreaStore.open(Paths.get(mapped));
+                World.useAreaStore(areas);
+                Log.info("Serving mapped areas", "count", areas.size(), "path", mapped);
+            } catch (IOException ex){
+                Log.error("An error occurred opening mapped areas", "path", mapped, "error", ex.getMessage());
+                return;
+            }
+        }
+        Journal.start(snapshotSeconds);
+        if (preload){
+            long start = System.nanoTime();
+            int count = World.preloadAreas();
+            Log.info("Loaded areas", "count", count, "ms", (System.nanoTime() - start) / 1000000);
+        }
+        PlayerSaver.start(saveSeconds);
+        Metrics.start(adminPort);
+        if (nio){
+            Log.info("Java MUD 1.0 listening", "port", PORT, "frontEnd", "nio", "workers", NIO_WORKERS);
+            new NioServer(PORT, NIO_WORKERS).run();
+            return;
+        }
+        ExecutorService pool = virtual ? newVirtualThreadPool() : null;
+        if (pool == null){
+            pool = Executors.newFixedThreadPool(THREADS);
+        }
         try {
             
-            System.out.println("Java MUD 1.0");
-            System.out.println("Server is Listening on port " + PORT);
+            Log.info("Java MUD 1.0 listening", "port", PORT, "frontEnd", virtual ? "virtual" : "threads");
             ServerSocket ssock = new ServerSocket(PORT);
 
             while(!exit){
                 Socket psock;
                 psock = ssock.accept();
+                if (!noDelay(psock)){
+                    continue;
+                }
                 Runnable thread = new PlayerThread(psock);
                 pool.execute(thread);
-                String client = psock.getInetAddress().toString();
-                System.out.println(client + " connected on local port " + psock.getPort() + ".");
+                Log.info("Player connected", "ip", psock.getInetAddress(), "port", psock.getPort());
              }
         } catch (Exception ex){
-            System.out.println("Something went wrong.");
+            Log.error("Something went wrong", "error", ex);
         }
         pool.shutdownNow();
     }
+
+    /************************************************************************
+     * Turns off Nagle on a new connection, since Outbound already batches;
+     * see NioServer.accept. A client that resets straight after connecting
+     * makes this fail, and then only that connection is closed.
+     * @param psock The accepted socket
+     * @return boolean - true if the connection is ready to use.
+     ************************************************************************/
+    private static boolean noDelay(Socket psock){
+        boolean outcome = true;
+        try {
+            psock.setTcpNoDelay(true);
+        } catch (IOException ex){
+            Log.warn("Dropping a connection that failed to set up", "ip", psock.getInetAddress(),
+                "error", ex.getMessage());
+            outcome = false;
+            try {
+                psock.close();
+            } catch (IOException closing){
+                // Already gone
+            }
+        }
+        return outcome;
+    }
+
+    /************************************************************************
+     * Creates an executor that starts a new virtual thread for every task.
+     * Looked up reflectively so the project still builds for Java 8.
+     * @return ExecutorService, or null when the JVM has no virtual threads.
+     ************************************************************************/
+    private static ExecutorService newVirtualThreadPool(){
+        ExecutorService pool = null;
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            pool = (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException ex){
+            Log.warn("Virtual threads need Java 21 or later, using platform threads");
+        }
+        return pool;
+    }
 }
@@ -0,0 +1,401 @@
+package mclamud;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.Deflater;
+
+/**
+ * Telnet is the protocol engine for one connection. It sits between the
+ * socket and everything else: input is decoded in place as it arrives,
+ * with commands, option negotiation and sub-negotiation taken out before
+ * the line reader sees it, and output has IAC escaped and, once the client
+ * agrees to MCCP2, is compressed with zlib.
+ *
+ * The server offers MCCP2 (option 86) and asks for NAWS (option 31) when
+ * the connection opens. Any other option the client offers or asks for is
+ * refused. Negotiation follows RFC 854: a request that would not change an
+ * option's state gets no answer, so two ends can never loop.
+ */
+public class Telnet {
+    final static int IAC = 255;
+    final static int DONT = 254;
+    final static int DO = 253;
+    final static int WONT = 252;
+    final static int WILL = 251;
+    final static int SB = 250;
+    final static int SE = 240;
+    final static int OPT_NAWS = 31;
+    final static int OPT_COMPRESS2 = 86;
+
+    private final static int MAX_SUBNEGOTIATION = 64;
+
+    private enum State {DATA, COMMAND, OPTION, SB_OPTION, SB_DATA, SB_IAC}
+
+    private final OutputStream raw;
+
+    // Input side, only touched by the thread reading the connection
+    private State state = State.DATA;
+    private int verb;
+    private int sbOption;
+    private final byte[] sb = new byte[MAX_SUBNEGOTIATION];
+    private int sbLength;
+    private final boolean[] local = new boolean[256];       // options we have on
+    private final boolean[] localAsked = new boolean[256];  // WILL sent, no answer yet
+    private final boolean[] remote = new boolean[256];      // options the client has on
+    private final boolean[] remoteAsked = new boolean[256]; // DO sent, no answer yet
+
+    // Output side, guarded by writeLock. A ReentrantLock so a virtual
+    // thread blocked on the socket does not pin its carrier.
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private byte[] escaped = new byte[256];
+    private final byte[] compressed = new byte[4096];
+    private Deflater deflater = null;
+    private long dataBytes = 0;
+    private long wireBytes = 0;
+
+    // Window size from NAWS, 0 until the client reports it
+    public volatile int width = 0;
+    public volatile int height = 0;
+
+    public Telnet(OutputStream raw){
+        this.raw = raw;
+    }
+
+    /************************************************************************
+     * Sends the server's opening offers. Call once, before any other
+     * output.
+     * @throws IOException if the connection is closed
+     ************************************************************************/
+    public void start() throws IOException {
+        localAsked[OPT_COMPRESS2] = true;
+        remoteAsked[OPT_NAWS] = true;
+        writeLock.lock();
+        try {
+            emit(new byte[]{(byte) IAC, (byte) WILL, (byte) OPT_COMPRESS2,
+                (byte) IAC, (byte) DO, (byte) OPT_NAWS}, 0, 6);
+            flushOutput();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /************************************************************************
+     * Strips telnet commands out of bytes read from the connection and
+     * acts on them. The remaining data is moved to the front of the range.
+     * @param buf Bytes as read from the socket
+     * @param off Start of the bytes
+     * @param len Number of bytes
+     * @return int - the number of data bytes left at buf[off].
+     * @throws IOException if a negotiation reply cannot be sent
+     ************************************************************************/
+    public int decode(byte[] buf, int off, int len) throws IOException {
+        int out = off;
+        int end = off + len;
+        for (int i = off; i < end; i++){
+            int b = buf[i] & 0xFF;
+            switch (state){
+                case DATA:
+                    if (b == IAC){
+                        state = State.COMMAND;
+                    } else if (b != 0){ // NUL is padding, as in CR NUL
+                        buf[out++] = (byte) b;
+                    }
+                    break;
+                case COMMAND:
+                    if (b == IAC){
+                        buf[out++] = (byte) IAC; // escaped data byte
+                        state = State.DATA;
+                    } else if (b >= WILL && b <= DONT){
+                        verb = b;
+                        state = State.OPTION;
+                    } else if (b == SB){
+                        state = State.SB_OPTION;
+                    } else {
+                        state = State.DATA; // GA, NOP, AYT and friends
+                    }
+                    break;
+                case OPTION:
+                    negotiate(verb, b);
+                    state = State.DATA;
+                    break;
+                case SB_OPTION:
+                    sbOption = b;
+                    sbLength = 0;
+                    state = State.SB_DATA;
+                    break;
+                case SB_DATA:
+                    if (b == IAC){
+                        state = State.SB_IAC;
+                    } else if (sbLength < sb.length){
+                        sb[sbLength++] = (byte) b;
+                    }
+                    break;
+                default: // SB_IAC
+                    if (b == IAC){
+                        if (sbLength < sb.length){
+                            sb[sbLength++] = (byte) IAC;
+                        }
+                        state = State.SB_DATA;
+                    } else {
+                        if (b == SE){
+                            subnegotiate();
+                        }
+                        state = State.DATA;
+                    }
+            }
+        }
+        return out - off;
+    }
+
+    /************************************************************************
+     * Wraps the socket's input so reads return only data bytes.
+     * @param in The socket's input stream
+     * @return InputStream of decoded data
+     ************************************************************************/
+    public InputStream input(InputStream in){
+        return new FilterInputStream(in){
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                int n = read(one, 0, 1);
+                return n < 0 ? -1 : one[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n;
+                do {
+                    n = in.read(b, off, len);
+                    if (n > 0){
+                        n = decode(b, off, n);
+                    }
+                } while (n == 0 && len > 0);
+                return n;
+            }
+        };
+    }
+
+    /************************************************************************
+     * Returns the output stream for data to the client. Writes escape IAC
+     * and are compressed when MCCP2 is on; flush pushes everything written
+     * so far onto the socket.
+     * @return OutputStream to the client
+     ************************************************************************/
+    public OutputStream output(){
+        return new OutputStream(){
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                writeLock.lock();
+                try {
+                    if (escaped.length < len * 2){
+                        escaped = new byte[len * 2];
+                    }
+                    int n = 0;
+                    for (int i = off; i < off + len; i++){
+                        escaped[n++] = b[i];
+                        if (b[i] == (byte) IAC){
+                            escaped[n++] = (byte) IAC;
+                        }
+                    }
+                    dataBytes += len;
+                    emit(escaped, 0, n);
+                } finally {
+                    writeLock.unlock();
+                }
+            }
+
+            @Override
+            public void flush() throws IOException {
+                writeLock.lock();
+                try {
+                    flushOutput();
+                } finally {
+                    writeLock.unlock();
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                writeLock.lock();
+                try {
+                    endCompression();
+                    raw.close();
+                } finally {
+                    writeLock.unlock();
+                }
+            }
+        };
+    }
+
+    /************************************************************************
+     * Frees the compressor. Call once the connection is closed.
+     ************************************************************************/
+    public void close(){
+        writeLock.lock();
+        try {
+            if (deflater != null){
+                deflater.end();
+                deflater = null;
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public boolean isCompressing(){
+        writeLock.lock();
+        try {
+            return deflater != null;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /************************************************************************
+     * Counts output so far.
+     * @return long[] - data bytes written by the server, then bytes put on
+     * the wire after escaping and compression.
+     ************************************************************************/
+    public long[] traffic(){
+        writeLock.lock();
+        try {
+            return new long[]{dataBytes, wireBytes};
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void negotiate(int verb, int option) throws IOException {
+        switch (verb){
+            case DO:
+                if (option == OPT_COMPRESS2){
+                    if (!local[option]){
+                        local[option] = true;
+                        if (!localAsked[option]){
+                            command(WILL, option);
+                        }
+                        startCompression();
+                    }
+                } else {
+                    command(WONT, option);
+                }
+                localAsked[option] = false;
+                break;
+            case DONT:
+                if (local[option]){
+                    local[option] = false;
+                    if (option == OPT_COMPRESS2){
+                        writeLock.lock();
+                        try {
+                            endCompression();
+                        } finally {
+                            writeLock.unlock();
+                        }
+                    }
+                    command(WONT, option);
+                }
+                localAsked[option] = false; // a refusal of our offer needs no reply
+                break;
+            case WILL:
+                if (option == OPT_NAWS){
+                    if (!remote[option]){
+                        remote[option] = true;
+                        if (!remoteAsked[option]){
+                            command(DO, option);
+                        }
+                    }
+                } else {
+                    command(DONT, option);
+                }
+                remoteAsked[option] = false;
+                break;
+            default: // WONT
+                if (remote[option]){
+                    remote[option] = false;
+                    command(DONT, option);
+                }
+                remoteAsked[option] = false;
+        }
+    }
+
+    private void subnegotiate(){
+        if (sbOption == OPT_NAWS && sbLength >= 4){
+            width = (sb[0] & 0xFF) << 8 | (sb[1] & 0xFF);
+            height = (sb[2] & 0xFF) << 8 | (sb[3] & 0xFF);
+        }
+    }
+
+    private void command(int verb, int option) throws IOException {
+        writeLock.lock();
+        try {
+            emit(new byte[]{(byte) IAC, (byte) verb, (byte) option}, 0, 3);
+            flushOutput();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Everything after IAC SB COMPRESS2 IAC SE is one zlib stream
+    private void startCompression() throws IOException {
+        writeLock.lock();
+        try {
+            emit(new byte[]{(byte) IAC, (byte) SB, (byte) OPT_COMPRESS2,
+                (byte) IAC, (byte) SE}, 0, 5);
+            flushOutput();
+            deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Called with writeLock held
+    private void endCompression() throws IOException {
+        if (deflater != null){
+            deflater.finish();
+            while (!deflater.finished()){
+                int n = deflater.deflate(compressed);
+                raw.write(compressed, 0, n);
+                wireBytes += n;
+            }
+            deflater.end();
+            deflater = null;
+            raw.flush();
+        }
+    }
+
+    // Called with writeLock held
+    private void emit(byte[] b, int off, int len) throws IOException {
+        if (deflater == null){
+            raw.write(b, off, len);
+            wireBytes += len;
+        } else {
+            deflater.setInput(b, off, len);
+            while (!deflater.needsInput()){
+                int n = deflater.deflate(compressed, 0, compressed.length, Deflater.NO_FLUSH);
+                raw.write(compressed, 0, n);
+                wireBytes += n;
+            }
+        }
+    }
+
+    // Called with writeLock held
+    private void flushOutput() throws IOException {
+        if (deflater != null){
+            int n;
+            do {
+                n = deflater.deflate(compressed, 0, compressed.length, Deflater.SYNC_FLUSH);
+                raw.write(compressed, 0, n);
+                wireBytes += n;
+            } while (n == compressed.length);
+        }
+        raw.flush();
+    }
+}
@@ -0,0 +1,34 @@
+package mclamud;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * TimedLock is the ReentrantLock used for areas. It records how long each
+ * lock() waited to get the lock and how long the lock was then held, in
+ * Metrics.LOCK_WAIT and Metrics.LOCK_HOLD. Re-entering a lock already held
+ * is not counted again.
+ */
+public class TimedLock extends ReentrantLock {
+    private final static long serialVersionUID = 1L;
+    private long lockedAt; // only touched by the holder
+
+    @Override
+    public void lock(){
+        if (isHeldByCurrentThread()){
+            super.lock();
+            return;
+        }
+        long start = System.nanoTime();
+        super.lock();
+        lockedAt = System.nanoTime();
+        Metrics.LOCK_WAIT.record(lockedAt - start);
+    }
+
+    @Override
+    public void unlock(){
+        if (getHoldCount() == 1){
+            Metrics.LOCK_HOLD.record(System.nanoTime() - lockedAt);
+        }
+        super.unlock();
+    }
+}
@@ -2,11 +2,16 @@ package mclamud;
 
 import java.io.*;
 import java.net.Socket; //new
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.nio.CharBuffer;
+import java.util.AbstractMap;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
 
 public class World {
     private final static int MIN_PASSWORD_LENGTH = 8;
@@ -14,7 +19,18 @@ public class World {
     private final static int MAX_PLAYERNAME_LENGTH = 15;
     // +2 for up and down from original setting @ 4
     private final static int NUMBER_DIRECTIONS = 6;
-    public static Map<Integer, Area>areaMap = new HashMap<>();
+    private final static String NL = System.lineSeparator();
+    // There is no world-wide lock. A command locks only the Area objects it
+    // touches (Area.lock), and anything that holds two area locks at once
+    // takes them in ascending area ID order, see movePlayer.
+    public static Map<Integer, Area>areaMap = new ConcurrentHashMap<>();
+    // Set once preloadAreas has published the whole world
+    private static volatile boolean preloaded = false;
+    // Where areas and players are read from and players are saved to.
+    // Both are the flat files in areas/ and players/ unless Server picks
+    // another store at startup.
+    private static AreaStore areaStore = new FileStore();
+    private static PlayerStore playerStore = (FileStore) areaStore;
     
     /************************************************************************
      * Displays an area to the remote player.
@@ -22,108 +38,122 @@ public class World {
      * @param p Player to return output to
      * @return boolean true = succeeded, false if not.
      ************************************************************************/
-    public synchronized static boolean displayArea(int areaId, Player p) {
+    public static boolean displayArea(int areaId, Player p){
         boolean outcome = true;
-        PrintWriter out = null;
         Area a = getArea(areaId);
         if (a != null && p != null){
-            try {
-                out = new PrintWriter(p.socket.getOutputStream(), true);
-            } catch (IOException ex) {
-                outcome = false;
+            // Build the whole room as one message from the cached parts.
+            // A String is immutable, so a frame rendered twice by two
+            // threads at once is harmless. Mapped areas keep their text off
+            // the heap, so their frame is rendered from the mapping each
+            // time instead of cached.
+            String frame = a.frame;
+            if (frame == null){
+                frame = renderFrame(a);
+                if (a.store == null){
+                    a.frame = frame;
+                }
             }
-
-            if (outcome && out != null){
-                String[] portals = {"north","south","east","west","up","down"};   
-                out.println(Ansi.BLUE + a.title.trim() + Ansi.SANE);
-                out.println(a.description);
-
-                //List the available exits    
-                out.print("Exits available: ");
-                for (int i = 0; i < NUMBER_DIRECTIONS; i++){
-                    if (a.exits[i] != 0){
-                        out.print(portals[i] + " ");
-                    }
+            StringBuilder buffer = new StringBuilder(frame.length() + 256);
+            buffer.append(frame);
+            a.lock.lock();
+            try {
+                if (a.renderedVersion != a.version){
+                    renderContents(a);
                 }
-                out.print("\n");
-                
-                String itemsAvail ="Items available: ";
-                itemsAvail = a.items.stream().filter((x) -> (!x.equals(""))).map((x) -> x + " ").reduce(itemsAvail, String::concat);
-                out.println(itemsAvail);
-                
+                buffer.append(a.itemsLine);
                 //List the players in the area, excluding self
-                for (Player areaPlayers : a.players.values()){
-                    if (!areaPlayers.name.equalsIgnoreCase(p.name)){
-                        out.println(areaPlayers.name + " is here.");
+                for (int i = 0; i < a.presentNames.length; i++){
+                    if (!a.presentNames[i].equalsIgnoreCase(p.name)){
+                        buffer.append(a.presentLines[i]);
                     }
                 }
-                out.println("[" + areaId + "]"); //Remove this line after development
+            } finally {
+                a.lock.unlock();
             }
+            buffer.append("[").append(areaId).append("]").append(NL); //Remove this line after development
+            outcome = p.outbound.send(buffer.toString());
         }
         return outcome;
     }
+    
+    // Title, description and exits
+    private static String renderFrame(Area a){
+        String[] portals = {"north","south","east","west","up","down"};   
+        StringBuilder frame = new StringBuilder();
+        frame.append(Ansi.BLUE).append(a.getTitle().trim()).append(Ansi.SANE).append(NL);
+        frame.append(a.getDescription()).append(NL);
+        //List the available exits    
+        frame.append("Exits available: ");
+        for (int i = 0; i < NUMBER_DIRECTIONS; i++){
+            if (a.exits[i] != 0){
+                frame.append(portals[i]).append(" ");
+            }
+        }
+        frame.append("\n");
+        return frame.toString();
+    }
+    
+    // Items line and one line per player, called with the area locked
+    private static void renderContents(Area a){
+        StringBuilder items = new StringBuilder("Items available: ");
+        for (int id : a.items.ids()){
+            items.append(Items.name(id));
+            int count = a.items.count(id);
+            if (count > 1){
+                items.append(" x").append(count);
+            }
+            items.append(" ");
+        }
+        a.itemsLine = items.append(NL).toString();
+        a.presentNames = new String[a.players.size()];
+        a.presentLines = new String[a.players.size()];
+        int i = 0;
+        for (Player areaPlayers : a.players.values()){
+            a.presentNames[i] = areaPlayers.name;
+            a.presentLines[i] = areaPlayers.name + " is here." + NL;
+            i++;
+        }
+        a.renderedVersion = a.version;
+    }
      
+    private static Area loadArea(int areaId){
+        Area a = areaStore.load(areaId);
+        if (a != null){
+            Journal.restore(areaId, a);
+        }
+        return a;
+    }
+    
     /********************************************************************
-     * Reads the area file specified in areaId and returns an area object
-     * @param areaId An integer containing the ID of the area.
+     * Parses an area record in the .area format. Used by every AreaStore
+     * that keeps areas as text.
+     * @param text The record contents
      * @return Area object
      ********************************************************************/
-    private synchronized static Area readAreaFromFile(int areaId){
-        Area a = new Area();
-        String contents = null;
-        String areaFile = "areas/" + String.valueOf(areaId) + ".area";
-        File file = new File(areaFile);
-        try{    
-            if (file.exists()){
-                contents = new String(Files.readAllBytes(Paths.get(areaFile)));
-            } else {
-                a = null;
-                contents = null;
+    static Area parseArea(CharBuffer text){
+        final Area a = new Area();
+        RecordReader.parse(text, (name, value) -> {
+            switch(name){
+                case "description":
+                    a.description = value.toString();
+                    break;
+                case "title":
+                    a.title = value.toString();
+                    break;
+                case "exits":
+                    RecordReader.parseInts(value, a.exits);
+                    break;
+                case "items":
+                    a.items.addAll(RecordReader.splitList(value));
+                    break;    
+                case "id":
+                    a.ID = value.toString();
+                    break;    
+                default:
             }
-        }
-        catch(IOException e){
-            System.out.println("An error occurred reading " + areaFile + ".");
-        }
-        if (a != null && contents != null){
-            int indexNext;
-            do {
-                int indexStart = contents.indexOf("[");
-                int indexEnd = contents.indexOf("]");
-                String name = contents.substring(indexStart + 1, indexEnd).toLowerCase();
-                indexNext = contents.indexOf("[", indexStart + 1);
-                String value;
-                if (indexNext < 0){
-                    contents = contents.substring(indexEnd + 1);
-                    value = contents;
-                } else {
-                    value = contents.substring(indexEnd + 1, indexNext);
-                    contents = contents.substring(indexNext);
-                }
-                switch(name){
-                    case "description":
-                        a.description = value.trim();
-                        break;
-                    case "title":
-                        a.title = value.trim();
-                        break;
-                    case "exits":
-                        String[] exits = value.trim().split("\\s*,\\s*");
-                        for (int i = 0; i < exits.length; i++){
-                            a.exits[i] = Integer.parseInt(exits[i]);
-                        }
-                        break;
-                    case "items":
-                        String[] items = value.trim().split("\\s*,\\s*");
-                        a.items.addAll(Arrays.asList(items));
-                        break;    
-                    case "id":
-                        a.ID = value.trim();
-                        break;    
-                    default:
-                }
-            } while(indexNext >= 0);
-        }
-    return a;
+        });
+        return a;
     }
     
     /**********************************************************************
@@ -132,29 +162,122 @@ public class World {
      * @param areaId Integer containing the ID of the area.
      * @return Area object
      **********************************************************************/
-    private synchronized static Area getArea(int areaId){
-        Area a;
-        if (areaMap.containsKey(areaId)){
-            a = areaMap.get(areaId);
-        } else { 
-            a = readAreaFromFile(areaId);
-            areaMap.put(areaId, a);
+    static Area getArea(int areaId){
+        Area a = areaMap.get(areaId);
+        Metrics.areaLookup(a != null);
+        if (a == null && !preloaded){
+            // Read outside any lock; if two players race to load the same
+            // area the first one published wins and the other copy is dropped.
+            a = loadArea(areaId);
+            if (a != null){
+                Area loaded = areaMap.putIfAbsent(areaId, a);
+                if (loaded != null){
+                    a = loaded;
+                }
+            }
         }
         return a;
     }
     
+    /**********************************************************************
+     * Selects where areas are read from. Call before accepting players.
+     * @param store The AreaStore to use
+     **********************************************************************/
+    public static void useAreaStore(AreaStore store){
+        areaStore = store;
+    }
+    
+    /**********************************************************************
+     * Selects where players are read from and saved to. Call before
+     * accepting players.
+     * @param store The PlayerStore to use
+     **********************************************************************/
+    public static void usePlayerStore(PlayerStore store){
+        playerStore = store;
+    }
+    
+    public static PlayerStore playerStore(){
+        return playerStore;
+    }
+    
+    // One broken area file is left out instead of failing the whole load;
+    // exits into it are closed off like any other missing area
+    private static Area preloadArea(int areaId){
+        try {
+            return loadArea(areaId);
+        } catch (RuntimeException ex){
+            Log.error("An error occurred loading an area, skipping it", "area", areaId, "error", ex);
+            return null;
+        }
+    }
+    
+    /**********************************************************************
+     * Loads every area in the area store in parallel, skipping any that
+     * cannot be read, checks that every exit leads to a loaded area, and publishes the result as a read-only
+     * areaMap. After this getArea never reads from disk.
+     * @return int - the number of areas loaded.
+     **********************************************************************/
+    public static int preloadAreas(){
+        final int[] areaIds = areaStore.ids();
+        ForkJoinPool pool = new ForkJoinPool();
+        Map<Integer, Area> loaded;
+        try {
+            loaded = pool.submit(() -> Arrays.stream(areaIds).parallel().boxed()
+                .map(id -> new AbstractMap.SimpleEntry<>(id, preloadArea(id)))
+                .filter(e -> e.getValue() != null)
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue))).get();
+        } catch (InterruptedException | ExecutionException ex){
+            Log.error("An error occurred loading areas", "error", ex.getMessage());
+            return 0;
+        } finally {
+            pool.shutdown();
+        }
+        
+        //Exits to areas that do not exist are closed off
+        for (Map.Entry<Integer, Area> e : loaded.entrySet()){
+            int[] exits = e.getValue().exits;
+            for (int i = 0; i < NUMBER_DIRECTIONS; i++){
+                if (exits[i] != 0 && !loaded.containsKey(exits[i])){
+                    Log.warn("Exit to a missing area", "area", e.getKey(), "exit", exits[i]);
+                    exits[i] = 0;
+                }
+            }
+        }
+        areaMap = Collections.unmodifiableMap(new HashMap<>(loaded));
+        preloaded = true;
+        return loaded.size();
+    }
+    
     /***********************************************************************
      * Moves a player from one area to another
      * @param p Player object representing the connected player
      * @param newArea An int containing the area to which the player is 
      * being moved to.
      ***********************************************************************/
-    public synchronized static void movePlayer(Player p, int newArea){
+    public static void movePlayer(Player p, int newArea){
         Area a = getArea(p.location);
-        a.players.remove(p.name.toLowerCase());
         Area b = getArea(newArea);
-        b.players.put(p.name.toLowerCase(), p);
-        p.location = newArea;
+        // Always lock the lower area ID first so two players walking past
+        // each other in opposite directions cannot deadlock.
+        Area first = p.location <= newArea ? a : b;
+        Area second = p.location <= newArea ? b : a;
+        first.lock.lock();
+        try {
+            second.lock.lock();
+            try {
+                a.players.remove(p.name.toLowerCase());
+                b.players.put(p.name.toLowerCase(), p);
+                a.version++;
+                b.version++;
+                p.location = newArea;
+                Journal.recordLocation(p);
+            } finally {
+                second.lock.unlock();
+            }
+        } finally {
+            first.lock.unlock();
+        }
+        Interest.move(p, newArea);
     }
     
     /************************************************************************
@@ -162,134 +285,103 @@ public class World {
      * removed from is in player.location.
      * @param p Player object being removed
      ************************************************************************/
-    public synchronized static void removePlayer(Player p){
+    public static void removePlayer(Player p){
         Area a = getArea(p.location);
-        a.players.remove(p.name.toLowerCase());
+        a.lock.lock();
+        try {
+            if (a.players.remove(p.name.toLowerCase(), p)){
+                a.version++;
+            }
+        } finally {
+            a.lock.unlock();
+        }
+        Interest.leave(p);
     }
     
     /************************************************************************
-     * writePlayer saves the current Player object to a playername.player file.
+     * writePlayer saves the current Player object to the player store.
+     * Most callers should go through PlayerSaver instead, which coalesces
+     * repeated saves.
      * @param p Player object being written to file
      * @return boolean indication failure or success
      ************************************************************************/
-    public synchronized static boolean writePlayer(Player p){
-        boolean outcome = true;  
-        String path = "players/" + p.name.concat(".player").toLowerCase();
-        File f = new File(path);
-        String passwordHash = Integer.toHexString(p.password.hashCode());
-        try{
-            try (PrintWriter pw = new PrintWriter(f, "UTF-8")) {
-                pw.println("[description]" + p.description);
-                pw.println("[name]" + p.name);
-                pw.println("[password]" + passwordHash);
-                pw.println("[location]" + String.valueOf(p.location));
-                pw.print("[inventory] ");
-                for(int i=0;i < p.inventory.size();i++){
-                    pw.print(p.inventory.get(i));
-                    if(i != p.inventory.size())
-                        pw.print(",");
-                }
-            }
-        } catch(FileNotFoundException | UnsupportedEncodingException e){
-            outcome = false;
-            System.out.println("An error occurred writing " + path + ".");
-        }
-        return outcome;
+    public static boolean writePlayer(Player p){
+        return playerStore.write(p.name, formatPlayer(p));
     }
     
     /************************************************************************
-     * writeArea saves the current Area object to a areaID.area file.
-     * @param a Area object being written to file
-     * @return boolean indication failure or success
+     * formatPlayer renders a Player object in the .player file format.
+     * @param p Player object being saved
+     * @return String containing the file contents
      ************************************************************************/
-    private synchronized static boolean writeArea(Area a){
-        boolean outcome = true;  
-        String path = "areas/" + a.ID.concat(".area").toLowerCase();
-        File f = new File(path);
-        try{
-            try (PrintWriter pw = new PrintWriter(f, "UTF-8")) {
-                pw.println("[title]" + a.title);
-                pw.println("[description]" + a.description);
-                pw.println("[items]" + a.items);
-                pw.println("[exits]" + a.exits);
-            }
-        } catch(FileNotFoundException | UnsupportedEncodingException e){
-            outcome = false;
-            System.out.println("An error occurred writing " + path + ".");
+    public static String formatPlayer(Player p){
+        StringWriter contents = new StringWriter();
+        try (PrintWriter pw = new PrintWriter(contents)) {
+            pw.println("[description]" + p.description);
+            pw.println("[name]" + p.name);
+            pw.println("[password]" + p.password);
+            pw.println("[location]" + String.valueOf(p.location));
+            pw.print("[inventory] " + p.inventory.format());
         }
-        return outcome;
-    }    
+        return contents.toString();
+    }
     
 /********************************************************************
-     * Reads the player file specified in pName and returns an Player object
-     * @param pName name of Player being requested
+     * Parses a player record in the .player format.
+     * @param text The record contents
      * @return Player object
      ********************************************************************/    
-    private synchronized static Player readPlayerFromFile(String pName){
+    static Player parsePlayer(CharBuffer text){
         Socket sock = null;
-        Player p = new Player(sock);
-        String contents = null;
-        String playerFile = "players/" + pName + ".player";
-        File file = new File(playerFile);
-        try{    
-            if (file.exists()){
-                contents = new String(Files.readAllBytes(Paths.get(playerFile)));
-            } else {
-                System.out.println("NULL PLAYER LOADED");
-                p = null;
-                contents = null;
+        final Player p = new Player(sock);
+        RecordReader.parse(text, (name, value) -> {
+            switch(name){
+                case "description":
+                    p.description = value.toString();
+                    break;
+                case "name":
+                    p.name = value.toString();
+                    break;    
+                case "password":
+                    p.password = value.toString();
+                    break;
+                case "location":
+                    p.location = RecordReader.parseInt(value);
+                    break;
+                case "inventory":
+                    p.inventory.addAll(RecordReader.splitList(value));
+                    break;
+                default:
             }
-        }
-        catch(IOException e){
-            System.out.println("An error occurred reading " + playerFile + ".");
-        }
-        if (p != null && contents != null){
-            int indexNext;
-            do {
-                int indexStart = contents.indexOf("[");
-                int indexEnd = contents.indexOf("]");
-                String name = contents.substring(indexStart + 1, indexEnd).toLowerCase();
-                indexNext = contents.indexOf("[", indexStart + 1);
-                String value;
-                if (indexNext < 0){
-                    contents = contents.substring(indexEnd + 1);
-                    value = contents;
-                } else {
-                    value = contents.substring(indexEnd + 1, indexNext);
-                    contents = contents.substring(indexNext);
-                }
-                switch(name){
-                    case "description":
-                        p.description = value.trim();
-                        break;
-                    case "name":
-                        p.name = value.trim();
-                        break;    
-                    case "password":
-                        p.password = value.trim();
-                        break;
-                    case "location":
-                        p.location = Integer.parseInt(value.trim());
-                        break;
-                    case "inventory":
-                        String[] items = value.trim().split("\\s*,\\s*");
-                        p.inventory.addAll(Arrays.asList(items));
-                        break;
-                    default:
-                }
-            } while(indexNext >= 0);
-        }
-    return p;
+        });
+        return p;
     }
     
     /************************************************************************
-     * doesPlayerExist tests to see if an .area file exists for the player name.
+     * prefetchPlayer starts reading a player in the background, for a login
+     * that has got as far as the password prompt.
      * @param playerName A string containing the player name
+     ************************************************************************/
+    public static void prefetchPlayer(String playerName){
+        playerStore.prefetch(playerName);
+    }
+    
+    /************************************************************************
+     * areaExists tests to see if an area can be loaded.
+     * @param areaId An int containing the area ID
      * @return boolean - true if it exists and false if it does not.
      ************************************************************************/
-    public synchronized static boolean doesPlayerExist(String playerName){
-        File f = new File("players/" + playerName.concat(".player").toLowerCase());
-        return f.exists();
+    public static boolean areaExists(int areaId){
+        return getArea(areaId) != null;
+    }
+    
+    /************************************************************************
+     * doesPlayerExist tests to see if the player store has the player name.
+     * @param playerName A string containing the player name
+     * @return boolean - true if it exists and false if it does not.
+     ************************************************************************/
+    public static boolean doesPlayerExist(String playerName){
+        return playerStore.exists(playerName);
     }
     
     /*************************************************************************
@@ -298,7 +390,7 @@ public class World {
      * @param playerPassword
      * @return boolean - true if password meets requirements, false if not.
      *************************************************************************/
-    public synchronized static boolean isValidPassword(String playerPassword){
+    public static boolean isValidPassword(String playerPassword){
         boolean outcome = true;
         int flags = 0;
         if (playerPassword.length() >= MIN_PASSWORD_LENGTH){
@@ -330,7 +422,7 @@ public class World {
      * @param playerName String to be checked for validity
      * @return boolean - true if player name meets requirements, false if not.
      *************************************************************************/
-    public synchronized static boolean isValidPlayername(String playerName){
+    public static boolean isValidPlayername(String playerName){
         boolean outcome = true;
         int flags;
         if (playerName.length() >= MIN_PLAYERNAME_LENGTH && 
@@ -368,7 +460,7 @@ public class World {
  * @param direction command line string entered by player
  * @return Boolean - true if direction points to valid area ID, false if not.
  */
-    public synchronized static boolean doWalk(Player p, String direction){
+    public static boolean doWalk(Player p, String direction){
         boolean outcome = false;
         String[] dirList = {"north","south","east","west","up","down"};
         String[] dirAbbr = {"n","s","e","w","u","d"};
@@ -384,10 +476,20 @@ public class World {
             Area a = getArea(p.location);
             if (a != null){
                 if (a.exits[areaIndex] > 0){
+                    int from = p.location;
                     sendMessageToArea(p, p.name + " has exited " + 
                         dirList[areaIndex] + "."); //new
                     movePlayer(p, a.exits[areaIndex]);
                     sendMessageToArea(p, p.name + " has arrived."); //new
+                    if (Interest.movementRadius > 0){
+                        // Nearby rooms hear it too, without the rooms at
+                        // either end, which were told above
+                        int hops = Math.min(Interest.movementRadius, Interest.radius);
+                        Interest.publish(p, from, 1, hops, p.location, p.name + " leaves " +
+                            a.getTitle().trim() + ".");
+                        Interest.publish(p, p.location, 1, hops, from, p.name + " arrives in " +
+                            getArea(p.location).getTitle().trim() + ".");
+                    }
                     outcome = true;
                 }
             }
@@ -404,21 +506,22 @@ public class World {
  * @param  message message entered by player
  * @return Boolean - true if executed properly, false if not.
  */    
-    public synchronized static boolean sendMessageToArea(Player p, String message){ //new
+    public static boolean sendMessageToArea(Player p, String message){ //new
         boolean outcome = true;
         Area a = getArea(p.location);
-        PrintWriter out;
         if (a != null){
-            for (Player areaPlayers : a.players.values()){
-                try {
-                    if (!areaPlayers.name.equalsIgnoreCase(p.name)){
-                        Socket psock = areaPlayers.socket;
-                        out = new PrintWriter(psock.getOutputStream(), true);
-                        out.println(message);
+            byte[] encoded = Outbound.encode(message); // shared by every listener
+            a.lock.lock();
+            try {
+                for (Player areaPlayers : a.players.values()){
+                    if (areaPlayers != p){
+                        if (!areaPlayers.outbound.sendShared(encoded)){
+                            outcome = false;
+                        }
                     }
-                } catch (IOException e) {
-                    outcome = false;
                 }
+            } finally {
+                a.lock.unlock();
             }
         } else {
             outcome = false;
@@ -428,26 +531,36 @@ public class World {
     
 /**************************************************************************
  * sendMessageToWorld utilizes a log of current users on the Server and uses their stored socket
- * info to direct a message towards them.
+ * info to direct a message towards everyone but the sender.
  * @param p Player object
  * @param message message entered by player
  * @return Boolean - true if executed properly, false if not.
  */      
-    public synchronized static boolean sendMessageToWorld(Player p, String message){ //new
+    public static boolean sendMessageToWorld(Player p, String message){ //new
         boolean outcome = true;
-        PrintWriter out;
-        for (Player x : Server.curUsers){
-                try {
-                    Socket psock = x.socket;
-                    out = new PrintWriter(psock.getOutputStream(), true);
-                    out.println(p.name + " ]--> " + message);
-                    } catch (IOException e) {
-                        outcome = false;
-                    }
+        byte[] encoded = Outbound.encode(p.name + " ]--> " + message);
+        for (Player x : PlayerRegistry.all()){
+            if (x != p && !x.outbound.sendShared(encoded)){
+                outcome = false;
+            }
         }
         return outcome;
     }
 
+/**************************************************************************
+ * shout carries a message to everyone within Interest.radius steps of the
+ * player's room, through the exits, rather than to the whole world.
+ * @param p Player object
+ * @param message message entered by player
+ * @return Boolean - true if anyone heard it, false if not.
+ */
+    public static boolean shout(Player p, String message){
+        Area a = getArea(p.location);
+        String where = a != null ? a.getTitle().trim() : "somewhere";
+        return Interest.publish(p, p.location, 0, Interest.radius,
+            p.name + " shouts from " + where + ", \"" + message + "\"") > 0;
+    }
+
 /**************************************************************************
  * sendMessageToPlayer invokes the whisper function which isolates the name of a player P
  * and send them a message directly provided in the message
@@ -456,22 +569,11 @@ public class World {
  * @param message intended message
  * @return outcome is true for success
  */    
-    public synchronized static boolean sendMessageToPlayer(Player p,String P, String message){ //new
-        boolean outcome = true;
-        Area a = getArea(p.location);
-        PrintWriter out;
-        if (a != null){
-            for (Player areaPlayers : a.players.values()){
-                try {
-                    if (!areaPlayers.name.equalsIgnoreCase(p.name)&& areaPlayers.name.equals(P)){
-                        Socket psock = areaPlayers.socket;
-                        out = new PrintWriter(psock.getOutputStream(), true);
-                        out.println(p.name + " ]SHHHHH... " + message);
-                    }
-                } catch (IOException e) {
-                    outcome = false;
-                }
-            }
+    public static boolean sendMessageToPlayer(Player p,String P, String message){ //new
+        boolean outcome;
+        Player target = PlayerRegistry.find(P);
+        if (target != null && target != p && target.location == p.location){
+            outcome = target.outbound.println(p.name + " ]SHHHHH... " + message);
         } else {
             outcome = false;
         }
@@ -486,11 +588,9 @@ public class World {
  * @param emote intended emote message
  * @return outcome is true for success
  */    
-    public synchronized static boolean sendEmotetoPlayer(Player p,String P, String emote){ //new
+    public static boolean sendEmotetoPlayer(Player p,String P, String emote){ //new
         String emoteOut ="";
-        boolean outcome = true;
-        Area a = getArea(p.location);
-        PrintWriter out;
+        boolean outcome;
         switch(emote){
             case "wink":
                 emoteOut += "*" + p.name + " winks at you ;)";
@@ -502,21 +602,12 @@ public class World {
                 emoteOut += "*" + p.name + " frowns at you :(";
                 break;
             default:
-                
+            
                 break;
         }
-        if (a != null){
-            for (Player areaPlayers : a.players.values()){
-                try {
-                    if (!areaPlayers.name.equalsIgnoreCase(p.name)&& areaPlayers.name.equals(P)){
-                        Socket psock = areaPlayers.socket;
-                        out = new PrintWriter(psock.getOutputStream(), true);
-                        out.println(emoteOut);
-                    }
-                } catch (IOException e) {
-                    outcome = false;
-                }
-            }
+        Player target = PlayerRegistry.find(P);
+        if (target != null && target != p && target.location == p.location){
+            outcome = target.outbound.println(emoteOut);
         } else {
             outcome = false;
         }
@@ -528,12 +619,19 @@ public class World {
  * @param item Item retrieving
  * @param p Player object for storage of item
  */    
-    public synchronized static void getItem(String item,Player p){
+    public static void getItem(String item,Player p){
         Area a = getArea(p.location);
-        if(a.items.contains(item)){
-           p.inventory.add(item);
-           a.items.remove(item);
-           writeArea(a);
+        a.lock.lock();
+        try {
+            int id = Items.find(item);
+            if(a.items.remove(id)){
+               p.inventory.add(id, 1);
+               a.version++;
+               Journal.recordItems(p.location, a);
+               Journal.recordInventory(p);
+            }
+        } finally {
+            a.lock.unlock();
         }
     } 
     
@@ -543,15 +641,22 @@ public class World {
  * @param item Item released
  * @param p Player object 
  */     
-    public synchronized static void dropItem(String item,Player p){
+    public static void dropItem(String item,Player p){
         Area a = getArea(p.location);
-        if(p.inventory.contains(item)){
-            p.inventory.remove(item);
-            a.items.add(item);
-            writeArea(a);
+        a.lock.lock();
+        try {
+            int id = Items.find(item);
+            if(p.inventory.remove(id)){
+                a.items.add(id, 1);
+                a.version++;
+                Journal.recordItems(p.location, a);
+                Journal.recordInventory(p);
+            }
+        } finally {
+            a.lock.unlock();
         }
+    
         
-            
     } 
     
 /**************************************************************************
@@ -559,8 +664,15 @@ public class World {
  * @param name name of Player object to be rendered
  * @return Player object copy
  */   
-    public synchronized static Player loadPlayer(String name){
-        Player x = readPlayerFromFile(name);
+    public static Player loadPlayer(String name){
+        Player x = null;
+        String contents = playerStore.read(name);
+        if (contents != null){
+            x = parsePlayer(CharBuffer.wrap(contents));
+            Journal.restore(x);
+        } else {
+            Log.warn("No record for player", "player", name);
+        }
         return x;
     }    
 
@@ -570,12 +682,13 @@ public class World {
  * @param out PrintWriter stream for user
  * @param p Player object
  */    
-    public synchronized static void listInventory(PrintWriter out,Player p){
+    public static void listInventory(PrintWriter out,Player p){
         out.print("Current Inventory ----[ | ");
         if(!p.inventory.isEmpty()){
-            p.inventory.forEach((x) -> {
-                out.print(x + " | ");
-            }); 
+            for (int id : p.inventory.ids()){
+                int count = p.inventory.count(id);
+                out.print(Items.name(id) + (count > 1 ? " x" + count : "") + " | ");
+            }
             out.println(" ]");            
         }else{
             out.println("| ]");
@@ -588,7 +701,7 @@ public class World {
  * @param command current command being queried
  * @param err Boolean determines inquiry or error 
  */    
-    public synchronized static void helpMe(PrintWriter out,String command,boolean err){
+    public static void helpMe(PrintWriter out,String command,boolean err){
         String[] helpLine = {"",""};
         switch(command){
             case "look":
@@ -603,6 +716,10 @@ public class World {
                 helpLine[0] = "Speak to room";
                 helpLine[1] = "Command format is: say <message>";
                 break;
+            case "shout":
+                helpLine[0] = "Shout to nearby rooms";
+                helpLine[1] = "Command format is: shout <message>";
+                break;
             case "whisper":
                 helpLine[0] = "Speak to person";
                 helpLine[1] = "Command format is: whisper <name> <message>";
@@ -648,7 +765,7 @@ public class World {
  * @param direction Direction of inspection
  * @return True if valid direction
  */        
-    public synchronized static boolean checkDirection(Player p, String direction){
+    public static boolean checkDirection(Player p, String direction){
         boolean outcome = false;
         String[] dirList = {"north","south","wet","east","up","down"};
         String[] dirAbbr = {"n","s","w","e","u","d"};
@@ -675,7 +792,7 @@ public class World {
  * @param p Player object
  * @param direction directio of interest
  */    
-    public synchronized static void doLook(PrintWriter out,Player p,String direction) {
+    public static void doLook(PrintWriter out,Player p,String direction){
         String[] dirList = {"north","south","west","east","up","down"};
         String[] dirAbbr = {"n","s","w","e","u","d"};
         int areaIndex = -1;
@@ -694,10 +811,15 @@ public class World {
             if (a != null){
                 if (a.exits[areaIndex] > 0){
                     Area b = getArea(a.exits[areaIndex]);
-                    
-                    out.println(b.description);
-                    for(String name : b.players.keySet()){
-                        curPlayers += name + " | ";
+                
+                    out.println(b.getDescription());
+                    b.lock.lock();
+                    try {
+                        for(String name : b.players.keySet()){
+                            curPlayers += name + " | ";
+                        }
+                    } finally {
+                        b.lock.unlock();
                     }
                     for (int i = 0; i < NUMBER_DIRECTIONS; i++){
                         if (b.exits[i] != 0){
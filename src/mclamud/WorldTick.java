@@ -0,0 +1,120 @@
+package mclamud;
+
+import java.io.PrintWriter;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * WorldTick is the game loop mode. Input threads only queue the commands
+ * players type, and a single scheduler thread runs everything queued once
+ * per tick, in arrival order, then releases all output written during the
+ * tick. Latency is bounded by the tick period and no two commands ever run
+ * against World at the same time.
+ */
+public class WorldTick {
+    private final static Queue<Command> COMMANDS = new ConcurrentLinkedQueue<>();
+    private static ScheduledExecutorService scheduler = null;
+
+    private WorldTick(){}
+
+    private static class Command {
+        final PlayerThread session;
+        final String line;
+        final PrintWriter out;
+        final String farewell; // set when the session is ending instead
+
+        Command(PlayerThread session, String line, PrintWriter out, String farewell){
+            this.session = session;
+            this.line = line;
+            this.out = out;
+            this.farewell = farewell;
+        }
+    }
+
+    /************************************************************************
+     * Starts the tick thread. Player output is held back until the end of
+     * each tick from here on.
+     * @param periodMillis Length of a tick in milliseconds
+     ************************************************************************/
+    public static synchronized void start(int periodMillis){
+        if (scheduler == null){
+            Outbound.deferred = true;
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "world-tick");
+                t.setDaemon(true);
+                return t;
+            });
+            scheduler.scheduleAtFixedRate(WorldTick::tick, periodMillis, periodMillis,
+                TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public static boolean isRunning(){
+        return scheduler != null;
+    }
+
+    /************************************************************************
+     * Queues a command line to be run on the next tick.
+     * @param session The session that read the line
+     * @param line The command as typed
+     * @param out PrintWriter of the player
+     ************************************************************************/
+    public static void submit(PlayerThread session, String line, PrintWriter out){
+        COMMANDS.add(new Command(session, line, out, null));
+    }
+
+    /************************************************************************
+     * Queues the end of a session, to be run after any commands the player
+     * has already queued.
+     * @param session The session that is ending
+     * @param farewell Text appended to the player name for the area
+     ************************************************************************/
+    public static void end(PlayerThread session, String farewell){
+        COMMANDS.add(new Command(session, null, null, farewell));
+    }
+
+    public static int pending(){
+        return COMMANDS.size();
+    }
+
+    // Nothing may escape: an exception out of a scheduleAtFixedRate task
+    // silently cancels every later tick and strands the queued commands
+    private static void tick(){
+        // Only run what was queued when the tick began; anything that
+        // arrives meanwhile waits for the next one.
+        long start = System.nanoTime();
+        int batch = COMMANDS.size();
+        try {
+            for (int i = 0; i < batch; i++){
+                run(COMMANDS.poll());
+            }
+        } finally {
+            try {
+                Outbound.releaseDeferred();
+            } catch (Throwable ex){
+                Log.error("Releasing tick output failed", "error", ex);
+            }
+            Metrics.TICKS.record(System.nanoTime() - start);
+        }
+    }
+
+    private static void run(Command c){
+        try {
+            if (c.farewell != null){
+                c.session.closeSession(c.farewell);
+            } else {
+                c.session.runCommand(c.line, c.out);
+            }
+        } catch (Throwable ex){
+            Log.error("Command failed", "command", c.line, "error", ex);
+            try {
+                c.session.closeSession(" crumbles into dust.");
+            } catch (Throwable closing){
+                Log.error("Closing a failed session failed", "error", closing);
+            }
+        }
+    }
+}